@@ -0,0 +1,246 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import javax.swing.JList;
+
+/**
+ * Calls into the application, whose classes live in the default package.
+ *
+ * JMH only generates code for benchmarks in a named package, and a named
+ * package cannot import the default one, so the application is reached
+ * through method handles. They are kept in static finals, which the JIT
+ * inlines like direct calls.
+ */
+final class App {
+    private static final Class<?> BLOB_STORE = load("BlobStore");
+    private static final Class<?> CLIP_JOURNAL = load("ClipJournal");
+    private static final Class<?> RECORD = load("ClipJournal$Record");
+    private static final Class<?> DAY_CATALOG = load("DayCatalog");
+    private static final Class<?> TRIGRAM_INDEX = load("TrigramIndex");
+    private static final Class<?> SEARCH_SERVICE = load("SearchService");
+    private static final Class<?> SEARCH_MODE = load("SearchService$Mode");
+    private static final Class<?> CLIP_ENTRY = load("MainWindow$ClipEntry");
+    private static final Class<?> CLIP_LIST_MODEL = load("MainWindow$ClipListModel");
+    private static final Class<?> CLIP_GRID = load("MainWindow$ClipGrid");
+
+    private static final MethodHandle NEW_BLOB_STORE = constructor(BLOB_STORE, Path.class);
+    private static final MethodHandle NEW_JOURNAL = constructor(CLIP_JOURNAL, Path.class, BLOB_STORE);
+    private static final MethodHandle NEW_RECORD = constructor(RECORD, long.class, String.class);
+    private static final MethodHandle JOURNAL_APPEND = method(CLIP_JOURNAL, "append", LocalDate.class, List.class);
+    private static final MethodHandle JOURNAL_FORCE = method(CLIP_JOURNAL, "force");
+    private static final MethodHandle JOURNAL_COMPACT = method(CLIP_JOURNAL, "compact", LocalDate.class);
+    private static final MethodHandle NEW_CATALOG = constructor(DAY_CATALOG, CLIP_JOURNAL);
+    private static final MethodHandle CATALOG_SCAN = method(DAY_CATALOG, "scan");
+    private static final MethodHandle CATALOG_DATES = method(DAY_CATALOG, "dates");
+    private static final MethodHandle CATALOG_GET = method(DAY_CATALOG, "get", LocalDate.class);
+    private static final MethodHandle NEW_INDEX = constructor(TRIGRAM_INDEX, Path.class, DAY_CATALOG);
+    private static final MethodHandle NEW_SEARCH_SERVICE = constructor(SEARCH_SERVICE, DAY_CATALOG, TRIGRAM_INDEX);
+    private static final MethodHandle SEARCH_NOW = method(SEARCH_SERVICE, "searchNow", String.class, SEARCH_MODE);
+    private static final MethodHandle ENTRY_TEXT = method(CLIP_ENTRY, "getText");
+    private static final MethodHandle ADD_CLIP = method(load("MainWindow"), "addClip", String.class);
+    private static final MethodHandle RENDER_PREVIEW = method(load("ClipPreview"), "render", String.class);
+    private static final MethodHandle NEW_ENTRY = constructor(CLIP_ENTRY, String.class, LocalDate.class, long.class);
+    private static final MethodHandle ENTRY_SET_PREVIEW = method(CLIP_ENTRY, "setPreview", String.class);
+    private static final MethodHandle NEW_LIST_MODEL = constructor(CLIP_LIST_MODEL);
+    private static final MethodHandle LIST_MODEL_SET_ALL = method(CLIP_LIST_MODEL, "setAll", List.class);
+    private static final MethodHandle NEW_GRID = constructor(CLIP_GRID, CLIP_LIST_MODEL);
+
+    private App() {
+    }
+
+    static Object journal(Path directory) {
+        try {
+            Object blobs = NEW_BLOB_STORE.invoke(directory.resolve("blobs.pack"));
+            return NEW_JOURNAL.invoke(directory, blobs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object record(long timestamp, String text) {
+        try {
+            return NEW_RECORD.invoke(timestamp, text);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void append(Object journal, LocalDate date, List<Object> records) {
+        try {
+            JOURNAL_APPEND.invoke(journal, date, records);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void force(Object journal) {
+        try {
+            JOURNAL_FORCE.invoke(journal);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void compact(Object journal, LocalDate date) {
+        try {
+            JOURNAL_COMPACT.invoke(journal, date);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object catalog(Object journal) {
+        try {
+            Object catalog = NEW_CATALOG.invoke(journal);
+            CATALOG_SCAN.invoke(catalog);
+            return catalog;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<LocalDate> dates(Object catalog) {
+        try {
+            return (List<LocalDate>) CATALOG_DATES.invoke(catalog);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> clips(Object catalog, LocalDate date) {
+        try {
+            return (List<Object>) CATALOG_GET.invoke(catalog, date);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String text(Object entry) {
+        try {
+            return (String) ENTRY_TEXT.invoke(entry);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object index(Path directory, Object catalog) {
+        try {
+            return NEW_INDEX.invoke(directory, catalog);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object searchService(Object catalog, Object index) {
+        try {
+            return NEW_SEARCH_SERVICE.invoke(catalog, index);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Runs a search as typed into the search field, in the given mode
+     * ("TEXT", "FUZZY" or "REGEX").
+     */
+    static List<?> searchNow(Object service, String query, String mode) {
+        try {
+            return (List<?>) SEARCH_NOW.invoke(service, query, searchMode(mode));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void addClip(String text) {
+        try {
+            ADD_CLIP.invoke(text);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String renderPreview(String text) {
+        try {
+            return (String) RENDER_PREVIEW.invoke(text);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Returns a clip as the grid shows it, with its card preview rendered
+     * already, as the persistence writer leaves it.
+     */
+    static Object clipEntry(String text, LocalDate date, long timestamp) {
+        try {
+            Object entry = NEW_ENTRY.invoke(text, date, timestamp);
+            ENTRY_SET_PREVIEW.invoke(entry, renderPreview(text));
+            return entry;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Returns the grid of clip cards of the main window showing the given
+     * clips.
+     */
+    @SuppressWarnings("unchecked")
+    static JList<Object> clipGrid(List<Object> entries) {
+        try {
+            Object model = NEW_LIST_MODEL.invoke();
+            LIST_MODEL_SET_ALL.invoke(model, entries);
+            return (JList<Object>) NEW_GRID.invoke(model);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object searchMode(String name) {
+        return Enum.valueOf((Class) SEARCH_MODE, name);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not found: " + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No constructor on " + type.getName(), e);
+        }
+    }
+
+    // Also reaches package-private methods, e.g. ClipJournal.compact
+    private static MethodHandle method(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            Method method = type.getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No method " + type.getName() + "." + name, e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
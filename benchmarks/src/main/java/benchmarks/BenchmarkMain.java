@@ -0,0 +1,28 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs JMH with its usual options, writing the results as JSON to
+ * {@code jmh-result.json} unless {@code -rf} or {@code -rff} say otherwise,
+ * so runs can be compared by tools.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add(0, "json");
+            options.add(0, "-rf");
+        }
+        if (!options.contains("-rff")) {
+            options.add(0, "jmh-result.json");
+            options.add(0, "-rff");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
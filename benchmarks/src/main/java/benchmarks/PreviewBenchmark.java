@@ -0,0 +1,39 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering the card preview of a clip, by kind of clip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class PreviewBenchmark {
+    private static final int CLIPS = 1024;
+
+    // A SyntheticHistory.Kind
+    @Param({"ONE_LINER", "CODE", "LOG"})
+    public String kind;
+
+    private final String[] clips = new String[CLIPS];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(SyntheticHistory.SEED);
+        SyntheticHistory.Kind clipKind = SyntheticHistory.Kind.valueOf(kind);
+        for (int i = 0; i < CLIPS; i++) {
+            clips[i] = SyntheticHistory.clip(clipKind, random);
+        }
+    }
+
+    @Benchmark
+    public String render() {
+        return App.renderPreview(clips[next++ & (CLIPS - 1)]);
+    }
+}
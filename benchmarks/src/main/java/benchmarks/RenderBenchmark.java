@@ -0,0 +1,116 @@
+package benchmarks;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.ListCellRenderer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering the grid of clip cards, off-screen.
+ *
+ * The card renderer is measured for a single cell, by kind of clip, and
+ * the grid for a paint of the visible cards of a history of 1k to 100k
+ * clips, scrolled one row further at each paint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    // The grid area of the main window at its default size
+    private static final int WIDTH = 820;
+    private static final int HEIGHT = 660;
+    private static final int ROW_HEIGHT = 175;
+    private static final int ROWS = 64;
+
+    @State(Scope.Benchmark)
+    public static class Cells {
+        private static final int CLIPS = 1024;
+
+        // A SyntheticHistory.Kind
+        @Param({"ONE_LINER", "CODE", "LOG"})
+        public String kind;
+
+        JList<Object> grid;
+        ListCellRenderer<Object> renderer;
+        int next = 0;
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void setUp() {
+            Random random = new Random(SyntheticHistory.SEED);
+            SyntheticHistory.Kind clipKind = SyntheticHistory.Kind.valueOf(kind);
+            List<Object> entries = new ArrayList<>(CLIPS);
+            for (int i = 0; i < CLIPS; i++) {
+                entries.add(App.clipEntry(SyntheticHistory.clip(clipKind, random), LocalDate.now(), i));
+            }
+            grid = App.clipGrid(entries);
+            renderer = (ListCellRenderer<Object>) grid.getCellRenderer();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Grid {
+        @Param({"1000", "100000"})
+        public int clips;
+
+        JScrollPane scrollPane;
+        BufferedImage image;
+        Graphics2D graphics;
+        int row = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            List<Object> entries = new ArrayList<>(clips);
+            long timestamp = 0;
+            for (String text : SyntheticHistory.clips(clips, SyntheticHistory.SEED)) {
+                entries.add(App.clipEntry(text, LocalDate.now(), timestamp++));
+            }
+            scrollPane = new JScrollPane(App.clipGrid(entries));
+            scrollPane.setSize(WIDTH, HEIGHT);
+            scrollPane.doLayout();
+            scrollPane.getViewport().doLayout();
+            image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            graphics = image.createGraphics();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * One card as the grid asks the renderer for it, which builds the HTML
+     * view of its preview.
+     */
+    @Benchmark
+    public Component renderCell(Cells cells) {
+        int index = cells.next++ & (Cells.CLIPS - 1);
+        return cells.renderer.getListCellRendererComponent(cells.grid, cells.grid.getModel().getElementAt(index),
+            index, false, false);
+    }
+
+    /**
+     * A paint of the visible cards, as after scrolling the grid by a row.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BufferedImage paintGrid(Grid grid) {
+        JViewport viewport = grid.scrollPane.getViewport();
+        viewport.setViewPosition(new Point(0, (grid.row++ % ROWS) * ROW_HEIGHT));
+        grid.scrollPane.paint(grid.graphics);
+        return grid.image;
+    }
+}
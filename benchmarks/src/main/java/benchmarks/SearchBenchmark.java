@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Searches over histories of 1k to 1M clips.
+ *
+ * Each runs what typing into the search field runs, without the debounce,
+ * over {@link SyntheticHistory#CLIPS_PER_DAY} clips a day, loading days
+ * from disk as the catalog evicts them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class SearchBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Days {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int clips;
+
+        Path directory;
+        Object service;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("clip-bench");
+            Object journal = SyntheticHistory.write(directory, clips, SyntheticHistory.CLIPS_PER_DAY,
+                SyntheticHistory.SEED);
+            Object catalog = App.catalog(journal);
+            service = App.searchService(catalog, App.index(directory, catalog));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticHistory.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public List<?> textSearch(Days days) {
+        return App.searchNow(days.service, "timeout", "TEXT");
+    }
+
+    // Ruled out by the trigram index without reading any clip
+    @Benchmark
+    public List<?> textSearchNoMatch(Days days) {
+        return App.searchNow(days.service, "zqxj", "TEXT");
+    }
+
+    @Benchmark
+    public List<?> fuzzySearch(Days days) {
+        return App.searchNow(days.service, "usrtkn", "FUZZY");
+    }
+
+    // Pruned by the literal "proj-"
+    @Benchmark
+    public List<?> regexSearch(Days days) {
+        return App.searchNow(days.service, "PROJ-\\d{4}", "REGEX");
+    }
+
+    // No literal to prune with, every clip goes through the regex
+    @Benchmark
+    public List<?> regexSearchUnpruned(Days days) {
+        return App.searchNow(days.service, "\\d+\\.\\d+\\.\\d+\\.\\d+", "REGEX");
+    }
+}
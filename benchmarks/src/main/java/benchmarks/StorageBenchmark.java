@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Capturing, persisting and loading clips.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true", "-Duser.home=target/benchmark-home"})
+public class StorageBenchmark {
+    // Distinct clips cycled through, so no clip repeats the one before it
+    private static final int CLIP_POOL = 4096;
+    private static final int BATCH = 32;
+
+    @State(Scope.Benchmark)
+    public static class Capture {
+        String[] clips;
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            // addClip stores under user.home; never touch a real history
+            Path home = Paths.get(System.getProperty("user.home"));
+            if (!home.endsWith("benchmark-home")) {
+                throw new IllegalStateException("Run with -Duser.home=.../benchmark-home, not " + home);
+            }
+            if (Files.exists(home)) {
+                SyntheticHistory.delete(home);
+            }
+            clips = SyntheticHistory.clips(CLIP_POOL, SyntheticHistory.SEED).toArray(new String[0]);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Journal {
+        Path directory;
+        Object journal;
+        List<List<Object>> batches = new ArrayList<>();
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("clip-bench");
+            journal = App.journal(directory);
+            List<String> clips = SyntheticHistory.clips(CLIP_POOL, SyntheticHistory.SEED);
+            for (int i = 0; i < CLIP_POOL; i += BATCH) {
+                List<Object> batch = new ArrayList<>();
+                for (int j = i; j < i + BATCH; j++) {
+                    batch.add(App.record(j, clips.get(j)));
+                }
+                batches.add(batch);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticHistory.delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Stored {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int clips;
+
+        Path directory;
+        Object journal;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("clip-bench");
+            journal = SyntheticHistory.write(directory, clips, SyntheticHistory.CLIPS_PER_DAY, SyntheticHistory.SEED);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticHistory.delete(directory);
+        }
+    }
+
+    /**
+     * The capture path up to handing the clip to the persistence writer.
+     * Once the writer falls behind, the queue fills and this measures the
+     * rate clips are written at.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addClip(Capture capture) {
+        App.addClip(capture.clips[capture.next++ & (CLIP_POOL - 1)]);
+    }
+
+    /**
+     * One group commit of the persistence writer: a batch of clips appended
+     * to the journal and synced.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void appendBatch(Journal journal) {
+        List<Object> batch = journal.batches.get(journal.next++ % journal.batches.size());
+        App.append(journal.journal, LocalDate.now(), batch);
+        App.force(journal.journal);
+    }
+
+    /**
+     * Startup: listing the days and their clip counts.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object scanHistory(Stored stored) {
+        return App.catalog(stored.journal);
+    }
+
+    /**
+     * Loading every day and reading the text of every clip.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void loadHistory(Stored stored, Blackhole blackhole) {
+        Object catalog = App.catalog(stored.journal);
+        for (LocalDate date : App.dates(catalog)) {
+            for (Object entry : App.clips(catalog, date)) {
+                blackhole.consume(App.text(entry));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates clip histories with a realistic mix of sizes and writes them
+ * the way the application stores them.
+ *
+ * About 80% of the clips are one-liners (commands, URLs, identifiers,
+ * sentences), 15% code blocks of 3 to 25 lines and 5% log excerpts of 5 to
+ * 40 lines, for an average of roughly 230 characters a clip. Histories are
+ * generated from a fixed seed, so every run sees the same clips.
+ */
+final class SyntheticHistory {
+    static final long SEED = 0x5eed;
+    // A busy day of copying
+    static final int CLIPS_PER_DAY = 1000;
+
+    enum Kind { ONE_LINER, CODE, LOG }
+
+    private static final String[] WORDS = {
+        "user", "order", "invoice", "request", "timeout", "session", "cache", "config", "server",
+        "client", "payment", "token", "account", "report", "deploy", "build", "release", "branch",
+        "merge", "commit", "index", "query", "result", "error", "warning", "retry", "update",
+        "delete", "create", "status", "service", "handler", "listener", "queue", "message",
+        "worker", "thread", "memory", "disk", "network", "latency", "budget", "customer",
+        "product", "shipment", "address", "profile", "settings", "document", "upload",
+    };
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+    private static final String[] TYPES = {"int", "long", "String", "boolean", "List<String>", "Map<String, Object>"};
+
+    private SyntheticHistory() {
+    }
+
+    static List<String> clips(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> clips = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            clips.add(clip(kind(random), random));
+        }
+        return clips;
+    }
+
+    static Kind kind(Random random) {
+        int percent = random.nextInt(100);
+        return percent < 80 ? Kind.ONE_LINER : percent < 95 ? Kind.CODE : Kind.LOG;
+    }
+
+    static String clip(Kind kind, Random random) {
+        switch (kind) {
+            case CODE:
+                return code(random);
+            case LOG:
+                return log(random);
+            default:
+                return oneLiner(random);
+        }
+    }
+
+    /**
+     * Writes {@code count} clips into a new history under {@code directory},
+     * {@code clipsPerDay} a day up to today, and compacts every day like
+     * the application does. Past days are archived.
+     *
+     * @return the journal of the history
+     */
+    static Object write(Path directory, int count, int clipsPerDay, long seed) {
+        Object journal = App.journal(directory);
+        List<String> clips = clips(count, seed);
+        LocalDate today = LocalDate.now();
+        int days = (count + clipsPerDay - 1) / clipsPerDay;
+        int next = 0;
+        for (int day = days - 1; day >= 0; day--) {
+            LocalDate date = today.minusDays(day);
+            long timestamp = date.atStartOfDay().toEpochSecond(ZoneOffset.UTC) * 1000;
+            List<Object> records = new ArrayList<>();
+            for (int i = 0; i < clipsPerDay && next < count; i++) {
+                records.add(App.record(timestamp + i * 1000L, clips.get(next++)));
+            }
+            App.append(journal, date, records);
+            App.compact(journal, date);
+        }
+        App.force(journal);
+        return journal;
+    }
+
+    static void delete(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static String oneLiner(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return "git commit -m \"" + words(random, 3 + random.nextInt(6)) + "\"";
+            case 1:
+                return "https://example.com/" + word(random) + "/" + random.nextInt(100000)
+                    + "?q=" + word(random) + "&page=" + random.nextInt(20);
+            case 2:
+                return "PROJ-" + (100 + random.nextInt(9000)) + " " + words(random, 2 + random.nextInt(8));
+            case 3:
+                return uuid(random);
+            case 4:
+                return (10 + random.nextInt(240)) + "." + random.nextInt(256) + "."
+                    + random.nextInt(256) + "." + random.nextInt(256);
+            default:
+                return capitalize(words(random, 4 + random.nextInt(12))) + ".";
+        }
+    }
+
+    private static String code(Random random) {
+        StringBuilder code = new StringBuilder();
+        String name = word(random) + capitalize(word(random));
+        code.append("public ").append(type(random)).append(' ').append(name).append('(')
+            .append(type(random)).append(' ').append(word(random)).append(") {\n");
+        int lines = 3 + random.nextInt(23);
+        for (int i = 0; i < lines; i++) {
+            code.append(i % 5 == 4 ? "        " : "    ");
+            switch (random.nextInt(4)) {
+                case 0:
+                    code.append(type(random)).append(' ').append(word(random)).append(" = ")
+                        .append(word(random)).append(".get").append(capitalize(word(random))).append("();\n");
+                    break;
+                case 1:
+                    code.append("if (").append(word(random)).append(" == null) {\n");
+                    break;
+                case 2:
+                    code.append("// ").append(capitalize(words(random, 3 + random.nextInt(6)))).append('\n');
+                    break;
+                default:
+                    code.append(word(random)).append('.').append(word(random)).append('(')
+                        .append(random.nextInt(1000)).append(");\n");
+            }
+        }
+        return code.append("}\n").toString();
+    }
+
+    private static String log(Random random) {
+        StringBuilder log = new StringBuilder();
+        int lines = 5 + random.nextInt(36);
+        int second = random.nextInt(86000);
+        for (int i = 0; i < lines; i++) {
+            second += random.nextInt(3);
+            log.append(String.format("2024-05-%02d %02d:%02d:%02d.%03d %-5s [%s-%d] %s - %s id=%s\n",
+                1 + random.nextInt(28), second / 3600 % 24, second / 60 % 60, second % 60, random.nextInt(1000),
+                LEVELS[random.nextInt(LEVELS.length)], word(random), random.nextInt(16),
+                capitalize(word(random)) + "Service", words(random, 3 + random.nextInt(8)),
+                Long.toHexString(random.nextLong() & 0xffffffffL)));
+        }
+        return log.toString();
+    }
+
+    private static String uuid(Random random) {
+        String hex = Long.toHexString(random.nextLong() | Long.MIN_VALUE)
+            + Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+        return hex.substring(0, 8) + "-" + hex.substring(8, 12) + "-" + hex.substring(12, 16)
+            + "-" + hex.substring(16, 20) + "-" + hex.substring(20, 32);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder(word(random));
+        for (int i = 1; i < count; i++) {
+            words.append(' ').append(word(random));
+        }
+        return words.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String type(Random random) {
+        return TYPES[random.nextInt(TYPES.length)];
+    }
+
+    private static String capitalize(String text) {
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+}
@@ -0,0 +1,679 @@
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Content-addressed store for clip payloads, shared by all days.
+ *
+ * Every distinct clip text is stored once in the append-only pack file
+ * {@code blobs.pack} under a 64-bit FNV-1a key of its UTF-8 bytes; day
+ * segments only hold keys. A key collision between different texts is
+ * resolved by probing the next key, so a stored key always identifies one
+ * text. The pack index is rebuilt from the record headers the first time
+ * the store is used.
+ *
+ * Blobs of days that are over are archived with {@link #archive(long[])}:
+ * they are copied into Deflate-compressed blocks of about 64 KB, and the
+ * block table lets a read inflate only the block holding the wanted text.
+ * A few recently inflated blocks are cached. The plain copies become
+ * garbage.
+ *
+ * Reference counts are derived from the day segments when they are first
+ * needed and then kept up to date as days are compacted and deleted.
+ * {@link #collectGarbage()} rewrites the pack without unreferenced blobs
+ * and superseded copies once they make up enough of it.
+ *
+ * Decoded texts are cached through weak references, so a text copied on
+ * several days is held in memory once while anything still uses it.
+ *
+ * Changes are made one at a time under a write lock. Archiving and garbage
+ * collection read and compress outside the monitor that reads take, and
+ * only hold it to append a block or swap in the rewritten pack, so showing
+ * or searching clips does not wait for a whole rewrite.
+ *
+ * Record layout, a negative length marks a block:
+ * <pre>
+ *   plain: long key, int length, length bytes of UTF-8
+ *   block: long 0, int ~bodyLength,
+ *          int entries, int raw length, entries x { long key, int offset, int length },
+ *          deflated raw bytes
+ * </pre>
+ */
+public class BlobStore {
+    private static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int BLOCK_ENTRY_BYTES = Long.BYTES + 2 * Integer.BYTES;
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final int MAX_INFLATED_BLOCKS = 8;
+    private static final double GARBAGE_RATIO = 0.25;
+
+    private final Path packFile;
+    // Serializes changes to the pack; reads only take the monitor
+    private final Object writeLock = new Object();
+    private FileChannel channel;
+    private Map<Long, Blob> blobs;
+    private boolean counted = false;
+    private long liveBytes = 0;
+    private final Map<Long, WeakReference<String>> texts = new HashMap<>();
+    private int textsPurgeCountdown = 1024;
+    private final Map<Long, byte[]> inflated = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > MAX_INFLATED_BLOCKS;
+        }
+    };
+
+    private static class Block {
+        // Position of the deflated bytes in the pack
+        final long offset;
+        final int storedLength;
+        final int rawLength;
+
+        Block(long offset, int storedLength, int rawLength) {
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private static class Blob {
+        // Payload position in the pack, or in the raw bytes of its block
+        final long offset;
+        final int length;
+        final Block block;
+        int refs = 0;
+
+        Blob(long offset, int length, Block block) {
+            this.offset = offset;
+            this.length = length;
+            this.block = block;
+        }
+    }
+
+    public BlobStore(Path packFile) {
+        this.packFile = packFile;
+    }
+
+    /**
+     * Stores a text unless an identical one is already stored.
+     *
+     * @return the key of the text
+     */
+    public long put(String text) throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                open();
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                long key = hash(bytes);
+                while (true) {
+                    Blob blob = blobs.get(key);
+                    if (blob == null) break;
+                    if (blob.length == bytes.length && Arrays.equals(read(blob), bytes)) {
+                        return key;
+                    }
+                    key++;
+                }
+
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bytes.length);
+                record.putLong(key).putInt(bytes.length).put(bytes).flip();
+                long offset = channel.size();
+                while (record.hasRemaining()) {
+                    offset += channel.write(record, offset);
+                }
+                blobs.put(key, new Blob(offset - bytes.length, bytes.length, null));
+                cache(key, text);
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Returns the text stored under a key, sharing the instance with every
+     * other user of the same text that is still alive.
+     */
+    public synchronized String text(long key) throws IOException {
+        WeakReference<String> cached = texts.get(key);
+        String text = cached != null ? cached.get() : null;
+        if (text != null) {
+            return text;
+        }
+
+        open();
+        Blob blob = blobs.get(key);
+        if (blob == null) {
+            throw new IOException("Missing blob " + Long.toHexString(key));
+        }
+        text = new String(read(blob), StandardCharsets.UTF_8);
+        cache(key, text);
+        return text;
+    }
+
+    /**
+     * Returns the stored instance of a text if one is currently held in
+     * memory, otherwise the given text, which becomes the shared one.
+     *
+     * The text is cached under the key {@link #put} gives it, found by the
+     * same probing: a slot that holds another text is passed over, and the
+     * first free one is where it will be stored.
+     */
+    public synchronized String intern(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        long key = hash(bytes);
+        try {
+            open();
+            while (true) {
+                WeakReference<String> cached = texts.get(key);
+                String existing = cached != null ? cached.get() : null;
+                if (existing != null) {
+                    if (existing.equals(text)) {
+                        return existing;
+                    }
+                    key++;
+                    continue;
+                }
+
+                Blob blob = blobs.get(key);
+                if (blob == null || (blob.length == bytes.length && Arrays.equals(read(blob), bytes))) {
+                    cache(key, text);
+                    return text;
+                }
+                key++;
+            }
+        } catch (IOException e) {
+            // Not shared, but still correct
+            return text;
+        }
+    }
+
+    /**
+     * Forces appended blobs to the storage device, before segments that
+     * refer to them are written.
+     */
+    public synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Moves the given blobs into compressed blocks appended to the pack.
+     * Blobs that are already archived are skipped.
+     */
+    public void archive(long[] keys) throws IOException {
+        synchronized (writeLock) {
+            FileChannel pack;
+            List<List<Long>> groups = new ArrayList<>();
+            Map<Long, Blob> plain = new HashMap<>();
+            synchronized (this) {
+                open();
+                pack = channel;
+                List<Long> group = new ArrayList<>();
+                int rawLength = 0;
+                for (long key : keys) {
+                    Blob blob = blobs.get(key);
+                    if (blob == null || blob.block != null || plain.put(key, blob) != null) continue;
+
+                    group.add(key);
+                    rawLength += blob.length;
+                    if (rawLength >= BLOCK_BYTES) {
+                        groups.add(group);
+                        group = new ArrayList<>();
+                        rawLength = 0;
+                    }
+                }
+                if (!group.isEmpty()) {
+                    groups.add(group);
+                }
+            }
+
+            // Read and compress without holding up readers; only the write
+            // lock keeps the pack and its index from changing meanwhile
+            for (List<Long> group : groups) {
+                List<byte[]> texts = new ArrayList<>(group.size());
+                for (Long key : group) {
+                    Blob blob = plain.get(key);
+                    texts.add(readFully(pack, blob.offset, blob.length));
+                }
+                ByteBuffer record = encodeBlock(group, texts);
+                synchronized (this) {
+                    appendBlock(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether reference counts are being tracked; until then they are
+     * derived from the segments on the first {@link #count} call.
+     */
+    public synchronized boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * Initializes reference counts from the keys of every segment.
+     */
+    public void count(Iterable<long[]> segmentKeys) throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (counted) return;
+
+                open();
+                for (long[] keys : segmentKeys) {
+                    for (long key : keys) {
+                        Blob blob = blobs.get(key);
+                        if (blob != null) {
+                            blob.refs++;
+                        }
+                    }
+                }
+
+                liveBytes = 0;
+                for (Blob blob : blobs.values()) {
+                    if (blob.refs > 0) {
+                        liveBytes += storedBytes(blob);
+                    }
+                }
+                counted = true;
+            }
+        }
+    }
+
+    public void addRefs(long[] keys) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (!counted) return;
+
+                for (long key : keys) {
+                    Blob blob = blobs.get(key);
+                    if (blob != null && blob.refs++ == 0) {
+                        liveBytes += storedBytes(blob);
+                    }
+                }
+            }
+        }
+    }
+
+    public void release(long[] keys) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (!counted) return;
+
+                for (long key : keys) {
+                    Blob blob = blobs.get(key);
+                    if (blob != null && blob.refs > 0 && --blob.refs == 0) {
+                        liveBytes -= storedBytes(blob);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes of the pack taken up by referenced blobs, once counts are known.
+     */
+    public synchronized long liveBytes() {
+        return counted ? liveBytes : 0;
+    }
+
+    /**
+     * Bytes that releasing these keys would free: those of the blobs that
+     * nothing else refers to. Zero before counts are known.
+     */
+    public synchronized long exclusiveBytes(long[] keys) {
+        if (!counted) return 0;
+
+        Map<Long, Integer> occurrences = new HashMap<>();
+        for (long key : keys) {
+            occurrences.merge(key, 1, Integer::sum);
+        }
+        long bytes = 0;
+        for (Map.Entry<Long, Integer> entry : occurrences.entrySet()) {
+            Blob blob = blobs.get(entry.getKey());
+            if (blob != null && blob.refs == entry.getValue()) {
+                bytes += storedBytes(blob);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Rewrites the pack without unreferenced blobs and superseded copies
+     * once they make up a large enough share of it. Archived blobs are
+     * packed into fresh blocks. Does nothing before counts are known.
+     */
+    public void collectGarbage() throws IOException {
+        synchronized (writeLock) {
+            long size;
+            FileChannel pack;
+            List<Map.Entry<Long, Blob>> live = new ArrayList<>();
+            synchronized (this) {
+                if (!counted) return;
+                open();
+                size = channel.size();
+                if (size - liveBytes <= size * GARBAGE_RATIO) {
+                    return;
+                }
+                pack = channel;
+                for (Map.Entry<Long, Blob> entry : blobs.entrySet()) {
+                    if (entry.getValue().refs > 0) {
+                        live.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+            // In pack order, so each block is inflated once
+            live.sort(Comparator.comparingLong(entry -> position(entry.getValue())));
+
+            // The new pack is written without holding up readers, which keep
+            // using the old one until it is swapped in
+            Path tmp = packFile.resolveSibling(packFile.getFileName() + ".tmp");
+            Map<Long, Blob> kept = new HashMap<>();
+            boolean written = false;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long offset = 0;
+                List<Long> archivedKeys = new ArrayList<>();
+                List<byte[]> archivedTexts = new ArrayList<>();
+                int rawLength = 0;
+                Block lastBlock = null;
+                byte[] lastRaw = null;
+                for (Map.Entry<Long, Blob> entry : live) {
+                    Blob blob = entry.getValue();
+                    if (blob.block != null) {
+                        if (blob.block != lastBlock) {
+                            lastBlock = blob.block;
+                            lastRaw = inflate(pack, blob.block);
+                        }
+                        byte[] bytes = Arrays.copyOfRange(lastRaw, (int) blob.offset, (int) blob.offset + blob.length);
+                        archivedKeys.add(entry.getKey());
+                        archivedTexts.add(bytes);
+                        rawLength += bytes.length;
+                        if (rawLength >= BLOCK_BYTES) {
+                            offset = writeBlock(out, offset, encodeBlock(archivedKeys, archivedTexts), kept);
+                            archivedKeys.clear();
+                            archivedTexts.clear();
+                            rawLength = 0;
+                        }
+                        continue;
+                    }
+
+                    byte[] bytes = readFully(pack, blob.offset, blob.length);
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bytes.length);
+                    record.putLong(entry.getKey()).putInt(bytes.length).put(bytes).flip();
+                    while (record.hasRemaining()) {
+                        out.write(record, offset + record.position());
+                    }
+                    kept.put(entry.getKey(), new Blob(offset + RECORD_HEADER_BYTES, bytes.length, null));
+                    offset += RECORD_HEADER_BYTES + bytes.length;
+                }
+                if (!archivedKeys.isEmpty()) {
+                    writeBlock(out, offset, encodeBlock(archivedKeys, archivedTexts), kept);
+                }
+                out.force(false);
+                written = true;
+            } finally {
+                if (!written) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+
+            synchronized (this) {
+                // The pack cannot be replaced while open on Windows. Until the move
+                // succeeds the old pack stays in place and the index still matches it.
+                channel.close();
+                try {
+                    Files.move(tmp, packFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.deleteIfExists(tmp);
+                    channel = null;
+                    channel = openChannel();
+                    throw e;
+                }
+                channel = null;
+                channel = openChannel();
+                inflated.clear();
+
+                liveBytes = 0;
+                for (Map.Entry<Long, Blob> entry : kept.entrySet()) {
+                    entry.getValue().refs = blobs.get(entry.getKey()).refs;
+                    liveBytes += storedBytes(entry.getValue());
+                }
+                Log.info("Collected " + (blobs.size() - kept.size()) + " unreferenced blobs, pack "
+                    + size / 1024 + " KB -> " + channel.size() / 1024 + " KB");
+                blobs = kept;
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        if (channel != null) return;
+
+        channel = openChannel();
+        blobs = new HashMap<>();
+        // Counts kept for an earlier index do not carry over to this one
+        counted = false;
+        liveBytes = 0;
+
+        // Rebuild the index from the record headers, dropping a torn tail.
+        // A blob that was archived later is found in its block.
+        long size = channel.size();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(packFile), 1 << 16))) {
+            while (offset + RECORD_HEADER_BYTES <= size) {
+                long key = in.readLong();
+                int length = in.readInt();
+                int bodyLength = length < 0 ? ~length : length;
+                if (offset + RECORD_HEADER_BYTES + bodyLength > size) {
+                    break;
+                }
+
+                int tableBytes = 0;
+                if (length < 0) {
+                    int entries = in.readInt();
+                    int rawLength = in.readInt();
+                    tableBytes = 2 * Integer.BYTES + entries * BLOCK_ENTRY_BYTES;
+                    if (entries < 0 || tableBytes > bodyLength) {
+                        break;
+                    }
+                    Block block = new Block(offset + RECORD_HEADER_BYTES + tableBytes,
+                        bodyLength - tableBytes, rawLength);
+                    for (int i = 0; i < entries; i++) {
+                        long entryKey = in.readLong();
+                        int entryOffset = in.readInt();
+                        int entryLength = in.readInt();
+                        blobs.put(entryKey, new Blob(entryOffset, entryLength, block));
+                    }
+                } else {
+                    blobs.put(key, new Blob(offset + RECORD_HEADER_BYTES, length, null));
+                }
+
+                int skipped = tableBytes;
+                while (skipped < bodyLength) {
+                    int n = in.skipBytes(bodyLength - skipped);
+                    if (n <= 0) throw new EOFException();
+                    skipped += n;
+                }
+                offset += RECORD_HEADER_BYTES + bodyLength;
+            }
+        }
+        if (offset < size) {
+            channel.truncate(offset);
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(packFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Appends an encoded block and points its blobs at it
+    private void appendBlock(ByteBuffer record) throws IOException {
+        Map<Long, Blob> placed = new HashMap<>();
+        writeBlock(channel, channel.size(), record, placed);
+        for (Map.Entry<Long, Blob> entry : placed.entrySet()) {
+            Blob plain = blobs.get(entry.getKey());
+            Blob archived = entry.getValue();
+            archived.refs = plain.refs;
+            if (counted && plain.refs > 0) {
+                liveBytes += storedBytes(archived) - storedBytes(plain);
+            }
+            blobs.put(entry.getKey(), archived);
+        }
+    }
+
+    /**
+     * Returns the record of a compressed block holding the given texts,
+     * ready to be written.
+     */
+    private static ByteBuffer encodeBlock(List<Long> keys, List<byte[]> texts) {
+        int rawLength = 0;
+        for (byte[] text : texts) {
+            rawLength += text.length;
+        }
+        byte[] raw = new byte[rawLength];
+        int offset = 0;
+        for (byte[] text : texts) {
+            System.arraycopy(text, 0, raw, offset, text.length);
+            offset += text.length;
+        }
+
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawLength / 2 + 64);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        int tableBytes = 2 * Integer.BYTES + keys.size() * BLOCK_ENTRY_BYTES;
+        int bodyLength = tableBytes + compressed.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bodyLength);
+        record.putLong(0).putInt(~bodyLength).putInt(keys.size()).putInt(rawLength);
+        offset = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            int length = texts.get(i).length;
+            record.putLong(keys.get(i)).putInt(offset).putInt(length);
+            offset += length;
+        }
+        record.put(compressed.toByteArray()).flip();
+        return record;
+    }
+
+    /**
+     * Writes an encoded block at a position and records where each of its
+     * blobs ended up.
+     *
+     * @return the position after the block
+     */
+    private static long writeBlock(FileChannel out, long position, ByteBuffer record,
+                                   Map<Long, Blob> placed) throws IOException {
+        int bodyLength = ~record.getInt(Long.BYTES);
+        int entries = record.getInt(RECORD_HEADER_BYTES);
+        int rawLength = record.getInt(RECORD_HEADER_BYTES + Integer.BYTES);
+        int tableBytes = 2 * Integer.BYTES + entries * BLOCK_ENTRY_BYTES;
+        Block block = new Block(position + RECORD_HEADER_BYTES + tableBytes, bodyLength - tableBytes, rawLength);
+        for (int i = 0, at = RECORD_HEADER_BYTES + 2 * Integer.BYTES; i < entries; i++, at += BLOCK_ENTRY_BYTES) {
+            placed.put(record.getLong(at), new Blob(record.getInt(at + Long.BYTES),
+                record.getInt(at + Long.BYTES + Integer.BYTES), block));
+        }
+
+        ByteBuffer body = record.duplicate();
+        while (body.hasRemaining()) {
+            out.write(body, position + body.position());
+        }
+        return position + body.limit();
+    }
+
+    private byte[] read(Blob blob) throws IOException {
+        if (blob.block == null) {
+            return readFully(channel, blob.offset, blob.length);
+        }
+
+        byte[] raw = inflated.get(blob.block.offset);
+        if (raw == null) {
+            raw = inflate(channel, blob.block);
+            inflated.put(blob.block.offset, raw);
+        }
+        return Arrays.copyOfRange(raw, (int) blob.offset, (int) blob.offset + blob.length);
+    }
+
+    private static byte[] inflate(FileChannel pack, Block block) throws IOException {
+        byte[] raw = new byte[block.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(readFully(pack, block.offset, block.storedLength));
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length) {
+                throw new IOException("Truncated block at " + block.offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block at " + block.offset, e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    // Positional reads, which other threads reading the same channel do not disturb
+    private static byte[] readFully(FileChannel pack, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = pack.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Truncated blob at " + position);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static long position(Blob blob) {
+        return blob.block != null ? blob.block.offset : blob.offset;
+    }
+
+    /**
+     * Bytes of the pack taken up by a blob; for an archived blob its share
+     * of the compressed block.
+     */
+    private static long storedBytes(Blob blob) {
+        if (blob.block == null) {
+            return RECORD_HEADER_BYTES + blob.length;
+        }
+        return BLOCK_ENTRY_BYTES + (long) blob.length * blob.block.storedLength / Math.max(1, blob.block.rawLength);
+    }
+
+    private void cache(long key, String text) {
+        texts.put(key, new WeakReference<>(text));
+        if (--textsPurgeCountdown <= 0) {
+            texts.values().removeIf(ref -> ref.get() == null);
+            textsPurgeCountdown = Math.max(1024, texts.size());
+        }
+    }
+
+    static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
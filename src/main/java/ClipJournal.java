@@ -0,0 +1,678 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Append-only journal for the clips captured on a given day.
+ *
+ * Every captured clip is written as a single record at the end of
+ * {@code yyyy-MM-dd.journal} instead of rewriting the whole day file. The
+ * day file ({@code yyyy-MM-dd.seg}, see {@link DaySegment}) is only rebuilt
+ * by a background compaction, which folds the journal into it once the
+ * journal grows past {@link #COMPACT_THRESHOLD} records or the day is over.
+ * Compaction moves the clip texts into the {@link BlobStore}, so identical
+ * clips of different days are stored once, and keeps the blob reference
+ * counts in step with the segments.
+ *
+ * Record layout: {@code [int length][long timestamp][length bytes of UTF-8]}.
+ * A torn record at the tail (crash in the middle of an append) is ignored on
+ * read.
+ *
+ * A compaction writes the merged segment aside as {@code yyyy-MM-dd.seg.merged}
+ * and commits by deleting the rotated journal; only then is the merged file
+ * moved over the segment. A merged file found next to the rotated journal was
+ * never committed and is dropped, so a crash at any point neither loses nor
+ * repeats clips.
+ */
+public class ClipJournal {
+    static final String DAY_SUFFIX = ".seg";
+    static final String LEGACY_DAY_SUFFIX = ".txt";
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final String COMPACTING_SUFFIX = ".journal.compacting";
+    static final String MERGED_SUFFIX = ".seg.merged";
+
+    private static final int COMPACT_THRESHOLD = 500;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final Path directory;
+    private final BlobStore blobs;
+    private final Object compactLock = new Object();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "clip-journal-compactor");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // Append state, guarded by this
+    private LocalDate openDate;
+    private FileChannel channel;
+    private int appendedSinceCompaction = 0;
+
+    public ClipJournal(Path directory, BlobStore blobs) {
+        this.directory = directory;
+        this.blobs = blobs;
+    }
+
+    public static class Record {
+        public final long timestamp;
+        public final String text;
+
+        public Record(long timestamp, String text) {
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Everything stored for one day: the compacted segment, if any, and the
+     * journal records not compacted yet, newest first.
+     */
+    public static class Day {
+        public final DaySegment segment;
+        public final List<Record> recent;
+
+        Day(DaySegment segment, List<Record> recent) {
+            this.segment = segment;
+            this.recent = recent;
+        }
+
+        public int size() {
+            return recent.size() + (segment != null ? segment.size() : 0);
+        }
+    }
+
+    /**
+     * Appends a batch of clips to the journal of the given day with a single
+     * write. Rolling over to a new day schedules compaction of the previous
+     * one.
+     */
+    public void append(LocalDate date, List<Record> records) throws IOException {
+        if (records.isEmpty()) return;
+
+        List<byte[]> payloads = new ArrayList<>(records.size());
+        int total = 0;
+        for (Record record : records) {
+            byte[] payload = record.text.getBytes(StandardCharsets.UTF_8);
+            payloads.add(payload);
+            total += RECORD_HEADER_BYTES + payload.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (int i = 0; i < records.size(); i++) {
+            byte[] payload = payloads.get(i);
+            buffer.putInt(payload.length).putLong(records.get(i).timestamp).put(payload);
+        }
+        buffer.flip();
+
+        boolean compactNow;
+        synchronized (this) {
+            if (!date.equals(openDate)) {
+                LocalDate previous = openDate;
+                closeChannel();
+                if (previous != null) {
+                    scheduleCompaction(previous);
+                }
+                openDate = date;
+            }
+            if (channel == null) {
+                Path journal = journalPath(date);
+                channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                // Drop a torn tail record so new records stay readable
+                channel.truncate(validLength(journal));
+                channel.position(channel.size());
+            }
+
+            long before = channel.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                // Undo a partial batch so that writing it again does not
+                // repeat or tear records
+                try {
+                    channel.truncate(before);
+                } catch (IOException ignored) {
+                    // Reopening drops a torn tail all the same
+                }
+                closeChannel();
+                throw e;
+            }
+            Metrics.BYTES_STORED.addAndGet(total);
+            appendedSinceCompaction += records.size();
+            compactNow = appendedSinceCompaction >= COMPACT_THRESHOLD;
+            if (compactNow) {
+                appendedSinceCompaction = 0;
+            }
+        }
+
+        if (compactNow) {
+            scheduleCompaction(date);
+        }
+    }
+
+    /**
+     * Forces appended records of the open journal to the storage device.
+     */
+    public synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the open journal. A later append reopens it.
+     */
+    public synchronized void close() {
+        closeChannel();
+        openDate = null;
+    }
+
+    /**
+     * Opens a day, mapping its compacted segment and collecting any journal
+     * records that have not been compacted yet.
+     */
+    public Day readDay(LocalDate date) throws IOException {
+        synchronized (compactLock) {
+            Path dayFile = segmentFile(date);
+            DaySegment segment = Files.exists(dayFile) ? DaySegment.open(dayFile, blobs) : null;
+            List<Record> recent = new ArrayList<>();
+            synchronized (this) {
+                recent.addAll(readRecords(compactingPath(date)));
+                recent.addAll(readRecords(journalPath(date)));
+            }
+            Collections.reverse(recent);
+            return new Day(segment, recent);
+        }
+    }
+
+    /**
+     * Counts the clips of a day from the segment header and the journal
+     * record headers, without decoding any payload.
+     */
+    public int count(LocalDate date) throws IOException {
+        synchronized (compactLock) {
+            Path dayFile = segmentFile(date);
+            int count = Files.exists(dayFile) ? DaySegment.readCount(dayFile) : 0;
+            synchronized (this) {
+                count += countRecords(compactingPath(date));
+                count += countRecords(journalPath(date));
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Lists every day that has either a day file or a journal on disk.
+     */
+    public Set<LocalDate> listDays() throws IOException {
+        Set<LocalDate> days = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                LocalDate date = dateOf(file);
+                if (date != null) {
+                    days.add(date);
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Deletes the day file and journals of a day, releasing its references
+     * to the blob store.
+     */
+    public void deleteDay(LocalDate date) throws IOException {
+        synchronized (compactLock) {
+            Path dayFile = segmentFile(date);
+            if (Files.exists(dayFile)) {
+                countBlobReferences();
+                blobs.release(DaySegment.open(dayFile, blobs).keys());
+            }
+
+            synchronized (this) {
+                if (date.equals(openDate)) {
+                    closeChannel();
+                    openDate = null;
+                }
+                Files.deleteIfExists(journalPath(date));
+            }
+            Files.deleteIfExists(compactingPath(date));
+            Files.deleteIfExists(dayPath(date));
+            Files.deleteIfExists(mergedPath(date));
+            Files.deleteIfExists(directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + LEGACY_DAY_SUFFIX));
+        }
+    }
+
+    /**
+     * Returns the bytes stored for the history: the day files, journals and
+     * the referenced part of the blob pack.
+     */
+    public long storedBytes() throws IOException {
+        synchronized (compactLock) {
+            countBlobReferences();
+            long bytes = blobs.liveBytes();
+            for (LocalDate date : listDays()) {
+                bytes += dayFileBytes(date);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns the bytes deleting these days together would free, counting
+     * the blobs only they refer to, including those they share.
+     */
+    public long reclaimableBytes(Collection<LocalDate> dates) throws IOException {
+        synchronized (compactLock) {
+            countBlobReferences();
+            long bytes = 0;
+            List<long[]> segmentKeys = new ArrayList<>();
+            int keyCount = 0;
+            for (LocalDate date : dates) {
+                bytes += dayFileBytes(date);
+                Path dayFile = segmentFile(date);
+                if (Files.exists(dayFile)) {
+                    long[] keys = DaySegment.open(dayFile, blobs).keys();
+                    segmentKeys.add(keys);
+                    keyCount += keys.length;
+                }
+            }
+
+            long[] keys = new long[keyCount];
+            int offset = 0;
+            for (long[] segment : segmentKeys) {
+                System.arraycopy(segment, 0, keys, offset, segment.length);
+                offset += segment.length;
+            }
+            return bytes + blobs.exclusiveBytes(keys);
+        }
+    }
+
+    private long dayFileBytes(LocalDate date) throws IOException {
+        long bytes = 0;
+        for (Path file : new Path[] {dayPath(date), mergedPath(date), journalPath(date), compactingPath(date),
+                directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + LEGACY_DAY_SUFFIX)}) {
+            if (Files.exists(file)) {
+                bytes += Files.size(file);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Schedules compaction of every day before {@code today} that still has
+     * journal records, e.g. left over from a previous run, and archiving of
+     * the blobs of every day before it.
+     */
+    public void compactClosedDays(LocalDate today) {
+        try {
+            for (LocalDate date : listDays()) {
+                if (date.isBefore(today)) {
+                    if (Files.exists(journalPath(date)) || Files.exists(compactingPath(date))) {
+                        scheduleCompaction(date);
+                    } else {
+                        scheduleArchiving(date);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error scanning journals: " + e.getMessage());
+        }
+        scheduleGarbageCollection();
+    }
+
+    /**
+     * Schedules dropping blobs that are no longer referenced by any day and
+     * plain copies of archived ones.
+     */
+    public void scheduleGarbageCollection() {
+        compactor.execute(() -> {
+            synchronized (compactLock) {
+                try {
+                    countBlobReferences();
+                    blobs.collectGarbage();
+                } catch (IOException e) {
+                    Log.error("Error collecting unreferenced blobs: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void scheduleArchiving(LocalDate date) {
+        compactor.execute(() -> {
+            try {
+                archive(date);
+            } catch (IOException e) {
+                Log.error("Error archiving " + date + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public void scheduleCompaction(LocalDate date) {
+        compactor.execute(() -> {
+            try {
+                compact(date);
+            } catch (IOException e) {
+                Log.error("Error compacting journal for " + date + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Folds the journal of a day into its segment. The live journal is
+     * first rotated aside so appends can continue while the segment is
+     * being rebuilt. If the merged segment cannot be moved over the old one
+     * (e.g. it is still mapped on Windows) it is read in its place, and the
+     * day is not compacted again until the move succeeds.
+     */
+    void compact(LocalDate date) throws IOException {
+        synchronized (compactLock) {
+            Path compacting = compactingPath(date);
+            if (!segmentFile(date).equals(dayPath(date))) {
+                throw new IOException("Merged segment not installed yet");
+            }
+
+            // A leftover from an interrupted compaction is merged together
+            // with the current journal.
+            synchronized (this) {
+                Path journal = journalPath(date);
+                if (Files.exists(journal)) {
+                    if (date.equals(openDate)) {
+                        closeChannel();
+                    }
+                    if (Files.exists(compacting)) {
+                        appendFile(journal, compacting);
+                        Files.delete(journal);
+                    } else {
+                        Files.move(journal, compacting, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+            }
+
+            if (!Files.exists(compacting)) {
+                return;
+            }
+
+            List<Record> records = readRecords(compacting);
+            Collections.reverse(records);
+            mergeSegment(date, records, mergedPath(date), compacting);
+            // Installs the merged segment, or leaves it to be read in place
+            segmentFile(date);
+
+            // The segment of a day that is over is never written again
+            if (date.isBefore(LocalDate.now())) {
+                archive(date);
+            }
+        }
+    }
+
+    /**
+     * Moves the clip texts of a day into compressed blocks.
+     */
+    void archive(LocalDate date) throws IOException {
+        synchronized (compactLock) {
+            Path dayFile = segmentFile(date);
+            if (Files.exists(dayFile)) {
+                blobs.archive(DaySegment.open(dayFile, blobs).keys());
+            }
+        }
+    }
+
+    /**
+     * Rewrites a segment of an older format version in the current one.
+     */
+    void upgradeSegment(LocalDate date) throws IOException {
+        synchronized (compactLock) {
+            Path dayFile = segmentFile(date);
+            if (Files.exists(dayFile) && DaySegment.open(dayFile, blobs).version() < DaySegment.VERSION) {
+                writeSegment(date, Collections.emptyList());
+            }
+        }
+    }
+
+    /**
+     * Writes the segment of a day holding the given records, newest first,
+     * in front of the entries already in the segment.
+     */
+    void writeSegment(LocalDate date, List<Record> newest) throws IOException {
+        synchronized (compactLock) {
+            mergeSegment(date, newest, segmentFile(date), null);
+        }
+    }
+
+    /**
+     * Writes the records in front of the entries of the segment to the
+     * target file, then deletes the commit file, if any, before moving the
+     * blob references over to the new entries.
+     */
+    private void mergeSegment(LocalDate date, List<Record> newest, Path target, Path commit) throws IOException {
+        synchronized (compactLock) {
+            int size = newest.size();
+            Path dayFile = segmentFile(date);
+            DaySegment old = Files.exists(dayFile) ? DaySegment.open(dayFile, blobs) : null;
+            if (old != null) {
+                size += old.size();
+            }
+
+            long[] keys = new long[size];
+            List<byte[]> previews = new ArrayList<>(size);
+            List<Long> timestamps = new ArrayList<>(size);
+            int i = 0;
+            for (Record record : newest) {
+                keys[i++] = blobs.put(record.text);
+                previews.add(DaySegment.renderPreview(record.text));
+                timestamps.add(record.timestamp);
+            }
+
+            // Stored previews are carried over unless their format is outdated
+            long[] oldKeys = new long[0];
+            if (old != null) {
+                oldKeys = old.keys();
+                for (int j = 0; j < old.size(); j++) {
+                    byte[] preview = old.previewBytes(j);
+                    keys[i++] = old.version() >= 3 ? old.key(j) : blobs.put(old.text(j));
+                    previews.add(preview != null ? preview : DaySegment.renderPreview(old.text(j)));
+                    timestamps.add(old.timestamp(j));
+                }
+            }
+
+            blobs.force();
+            DaySegment.write(target, keys, previews, timestamps);
+            if (commit != null) {
+                Files.delete(commit);
+            }
+            blobs.addRefs(keys);
+            blobs.release(oldKeys);
+        }
+    }
+
+    /**
+     * Derives the blob reference counts from every segment the first time
+     * they are needed.
+     */
+    private void countBlobReferences() throws IOException {
+        if (blobs.isCounted()) return;
+
+        List<long[]> segmentKeys = new ArrayList<>();
+        for (LocalDate date : listDays()) {
+            Path dayFile = segmentFile(date);
+            if (Files.exists(dayFile)) {
+                segmentKeys.add(DaySegment.open(dayFile, blobs).keys());
+            }
+        }
+        blobs.count(segmentKeys);
+    }
+
+    /**
+     * Returns the segment file of a day, first finishing or dropping a merge
+     * an earlier compaction left behind. Called under the compaction lock.
+     */
+    private Path segmentFile(LocalDate date) {
+        Path merged = mergedPath(date);
+        if (!Files.exists(merged)) {
+            return dayPath(date);
+        }
+        try {
+            if (Files.exists(compactingPath(date))) {
+                // Never committed: the rotated journal is merged again
+                Files.delete(merged);
+            } else {
+                Files.move(merged, dayPath(date), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            return dayPath(date);
+        } catch (IOException e) {
+            return Files.exists(compactingPath(date)) ? dayPath(date) : merged;
+        }
+    }
+
+    static List<Record> readRecords(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return records;
+        }
+
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            long position = 0;
+            while (true) {
+                int length;
+                long timestamp;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    timestamp = in.readLong();
+                    // A corrupt length must not size the payload
+                    if (length < 0 || position + RECORD_HEADER_BYTES + length > size) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    // End of journal or torn tail record
+                    break;
+                }
+                position += RECORD_HEADER_BYTES + length;
+                records.add(new Record(timestamp, new String(payload, StandardCharsets.UTF_8)));
+            }
+        }
+        return records;
+    }
+
+    private static int countRecords(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        int count = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            long size = in.size();
+            long position = 0;
+            while (position + RECORD_HEADER_BYTES <= size) {
+                header.clear();
+                in.read(header, position);
+                int length = header.getInt(0);
+                if (length < 0 || position + RECORD_HEADER_BYTES + length > size) {
+                    break;
+                }
+                position += RECORD_HEADER_BYTES + length;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the length of the prefix of a journal made of complete records.
+     */
+    static long validLength(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            long size = in.size();
+            long position = 0;
+            while (position + RECORD_HEADER_BYTES <= size) {
+                header.clear();
+                in.read(header, position);
+                int length = header.getInt(0);
+                if (length < 0 || position + RECORD_HEADER_BYTES + length > size) {
+                    break;
+                }
+                position += RECORD_HEADER_BYTES + length;
+            }
+            return position;
+        }
+    }
+
+    private static void appendFile(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.error("Error closing journal: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    Path dayPath(LocalDate date) {
+        return directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + DAY_SUFFIX);
+    }
+
+    Path journalPath(LocalDate date) {
+        return directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + JOURNAL_SUFFIX);
+    }
+
+    Path compactingPath(LocalDate date) {
+        return directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + COMPACTING_SUFFIX);
+    }
+
+    Path mergedPath(LocalDate date) {
+        return directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + MERGED_SUFFIX);
+    }
+
+    static LocalDate dateOf(Path file) {
+        String filename = file.getFileName().toString();
+        String dateStr;
+        if (filename.endsWith(DAY_SUFFIX)) {
+            dateStr = filename.substring(0, filename.length() - DAY_SUFFIX.length());
+        } else if (filename.endsWith(MERGED_SUFFIX)) {
+            dateStr = filename.substring(0, filename.length() - MERGED_SUFFIX.length());
+        } else if (filename.endsWith(LEGACY_DAY_SUFFIX)) {
+            dateStr = filename.substring(0, filename.length() - LEGACY_DAY_SUFFIX.length());
+        } else if (filename.endsWith(COMPACTING_SUFFIX)) {
+            dateStr = filename.substring(0, filename.length() - COMPACTING_SUFFIX.length());
+        } else if (filename.endsWith(JOURNAL_SUFFIX)) {
+            dateStr = filename.substring(0, filename.length() - JOURNAL_SUFFIX.length());
+        } else {
+            return null;
+        }
+
+        try {
+            return LocalDate.parse(dateStr, DateTimeFormatter.ISO_DATE);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
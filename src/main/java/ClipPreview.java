@@ -0,0 +1,85 @@
+import java.util.regex.Pattern;
+
+/**
+ * Builds the truncated, HTML-escaped preview shown on a clip card.
+ *
+ * Previews are computed once per clip and stored in the day segments
+ * together with {@link #VERSION}; bump it whenever the output of
+ * {@link #render} changes so stored previews get recomputed.
+ */
+public class ClipPreview {
+    public static final int VERSION = 1;
+
+    private static final int MAX_LINES = 6;
+    private static final int MAX_CHARS = 150;
+    private static final Pattern LEADING_WHITESPACE = Pattern.compile("(?m)^\\s+");
+
+    // Starts the preview of an image clip, so cards know to load a thumbnail
+    private static final String IMAGE_MARK = "<!--image-->";
+
+    public static String render(String text) {
+        RichContent.Kind kind = RichContent.kind(text);
+        if (kind == RichContent.Kind.IMAGE) {
+            return IMAGE_MARK + render(RichContent.summary(text));
+        } else if (kind != null) {
+            String label = kind == RichContent.Kind.HTML ? "[HTML]"
+                : kind == RichContent.Kind.FILES ? "[Files]" : "[Large text]";
+            return "<b>" + label + "</b><br>" + render(RichContent.summary(text));
+        }
+        
+        // Remove extra whitespace at the beginning of lines (common in code)
+        text = LEADING_WHITESPACE.matcher(text).replaceAll("");
+        
+        // First, handle line breaks
+        String[] lines = text.split("\n");
+        if (lines.length <= MAX_LINES && text.length() < MAX_CHARS) {
+            return escapeHtml(text).replace("\n", "<br>");
+        }
+        
+        // If too many lines or too long, truncate and add ellipsis
+        StringBuilder truncated = new StringBuilder();
+        int totalChars = 0;
+        int linesAdded = 0;
+        
+        for (int i = 0; i < lines.length && linesAdded < MAX_LINES; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty()) continue;
+            
+            if (totalChars + line.length() > MAX_CHARS) {
+                // If we're getting too long, truncate this line
+                int remaining = MAX_CHARS - totalChars - 3; // Reserve 3 chars for ellipsis
+                if (remaining > 10) { // Only truncate if we have meaningful content
+                    truncated.append(escapeHtml(line.substring(0, remaining))).append("...");
+                    linesAdded++;
+                }
+                break;
+            }
+            
+            if (linesAdded > 0) {
+                truncated.append("<br>");
+            }
+            
+            truncated.append(escapeHtml(line));
+            totalChars += line.length();
+            linesAdded++;
+        }
+        
+        if (lines.length > MAX_LINES || text.length() > MAX_CHARS) {
+            truncated.append("<br>...");
+        }
+        
+        return truncated.toString();
+    }
+    
+    public static boolean isImage(String preview) {
+        return preview.startsWith(IMAGE_MARK);
+    }
+    
+    // Helper method to escape HTML and preserve spaces
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace(" ", "&nbsp;");
+    }
+}
@@ -4,6 +4,8 @@ import com.github.kwhat.jnativehook.GlobalScreen;
 
 public class ClipboardApp {
     public static void main(String[] args) {
+        Metrics.register();
+        EdtWatchdog.install();
         SystemTrayManager trayManager = new SystemTrayManager();
         ClipboardMonitor monitor = new ClipboardMonitor();
         GlobalHotkeyManager hotkeyManager = new GlobalHotkeyManager();
@@ -12,13 +14,18 @@ public class ClipboardApp {
             trayManager.init();
             monitor.start();
             hotkeyManager.start();
+            MainWindow.prewarm();
         });
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            MainWindow.shutdown();
+            Log.info("Clipboard monitor: " + monitor.stats());
+            Log.info("Metrics: " + Metrics.summary());
+            
             try {
                 GlobalScreen.unregisterNativeHook();
             } catch (Exception e) {
-                e.printStackTrace();
+                Log.error("Error unregistering native hook", e);
             }
         }));
     }
@@ -1,65 +1,277 @@
 import java.awt.*;
 import java.awt.datatransfer.*;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.prefs.Preferences;
 
+/**
+ * Captures clipboard changes on a dedicated thread.
+ *
+ * A change notification only marks the clipboard as changed and schedules a
+ * read unless one is already pending; notifications arriving meanwhile are
+ * coalesced into it. When the clipboard changed again while it was being
+ * read, it is read once more, so the latest state is always captured. A
+ * clipboard locked by another application is retried with exponential
+ * backoff instead of blocking the notification thread.
+ *
+ * Where flavor notifications stay silent for copies that keep the same
+ * flavors (X11), the clipboard can also be polled. Each poll compares a
+ * fingerprint of the text with the last one seen and requests a capture
+ * when it differs. The poll interval tightens after a change and backs off
+ * while the clipboard is idle. Polling is on by default on Linux and can be
+ * switched with the {@code pollClipboard} preference. The fingerprint covers
+ * the available flavors and the head of the text, read through a stream
+ * flavor, so a poll never builds a large text as a string. Changes past the
+ * head of a text that keep its flavors are left to the notifications.
+ *
+ * Images, HTML, file lists and texts longer than the {@code largeClipChars}
+ * preference are read through {@link RichContent}.
+ */
 public class ClipboardMonitor implements FlavorListener {
+    private static final int MAX_RETRIES = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 25;
+    private static final long MIN_POLL_MILLIS = 250;
+    private static final long MAX_POLL_MILLIS = 2000;
+    private static final int DEFAULT_LARGE_CLIP_CHARS = 256 * 1024;
+
     private Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-    private AtomicBoolean isProcessing = new AtomicBoolean(false);
+    private final ScheduledExecutorService capturer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "clipboard-capture");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Set by every notification, cleared when a read starts
+    private final AtomicBoolean changed = new AtomicBoolean(false);
+    // Whether a read is scheduled or running
+    private final AtomicBoolean captureScheduled = new AtomicBoolean(false);
+
+    // When the oldest change not read yet was noticed, 0 if none
+    private final AtomicLong changedAt = new AtomicLong();
+    private final Log.Sampler captureLog = new Log.Sampler(100);
+
+    // Texts longer than this are spilled to a file
+    private volatile int largeClipChars = DEFAULT_LARGE_CLIP_CHARS;
+
+    // Only touched on the capture thread
+    private long lastFingerprint = 0;
+    private long pollMillis = MIN_POLL_MILLIS;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong pollCpuNanos = new AtomicLong();
 
     public ClipboardMonitor() {
         this.clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
     }
 
     public void start() {
+        Preferences prefs = Preferences.userRoot().node("clipboardapp");
+        largeClipChars = Math.max(RichContent.minimumLargeChars(),
+            prefs.getInt("largeClipChars", DEFAULT_LARGE_CLIP_CHARS));
+
         clipboard.addFlavorListener(this);
-        System.out.println("Clipboard monitor started");
+        boolean linux = System.getProperty("os.name", "").toLowerCase().contains("linux");
+        if (prefs.getBoolean("pollClipboard", linux)) {
+            capturer.schedule(this::poll, pollMillis, TimeUnit.MILLISECONDS);
+            Log.info("Clipboard monitor started, polling");
+        } else {
+            Log.info("Clipboard monitor started");
+        }
     }
 
     @Override
     public void flavorsChanged(FlavorEvent e) {
-        if (!isProcessing.compareAndSet(false, true)) {
-            System.out.println("Clipboard change already being processed, skipping...");
-            return;
+        requestCapture();
+    }
+
+    private void requestCapture() {
+        Metrics.CLIPBOARD_EVENTS.incrementAndGet();
+        changedAt.compareAndSet(0, System.nanoTime());
+        changed.set(true);
+        if (captureScheduled.compareAndSet(false, true)) {
+            capturer.execute(() -> capture(0, 0));
+        } else {
+            Metrics.COALESCED_EVENTS.incrementAndGet();
+        }
+    }
+
+    private void poll() {
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        boolean changedSinceLastPoll = false;
+
+        // A pending capture reads the clipboard anyway
+        if (!captureScheduled.get()) {
+            try {
+                long current = fingerprint();
+                if (current != lastFingerprint) {
+                    lastFingerprint = current;
+                    changedSinceLastPoll = true;
+                    requestCapture();
+                }
+            } catch (IllegalStateException ex) {
+                // Locked by another application, look again next time
+            } catch (Exception ex) {
+                Log.warn("Error polling clipboard: " + ex.getMessage());
+            }
+        }
+
+        polls.incrementAndGet();
+        if (cpuStart >= 0) {
+            pollCpuNanos.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+        }
+
+        pollMillis = changedSinceLastPoll ? MIN_POLL_MILLIS : Math.min(MAX_POLL_MILLIS, pollMillis * 3 / 2);
+        capturer.schedule(this::poll, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hashes the available flavors and the head of the text. Only the head
+     * is read, through a stream flavor where there is one, so that the
+     * whole text is not turned into a string.
+     */
+    private long fingerprint() throws IOException, UnsupportedFlavorException {
+        DataFlavor[] flavors = clipboard.getAvailableDataFlavors();
+        long hash = 0xcbf29ce484222325L;
+        for (DataFlavor flavor : flavors) {
+            hash = (hash ^ flavor.getMimeType().hashCode()) * 0x100000001b3L;
+        }
+
+        DataFlavor text = headFlavor(flavors);
+        if (text == null) return hash;
+
+        Transferable single = new Transferable() {
+            @Override
+            public DataFlavor[] getTransferDataFlavors() {
+                return new DataFlavor[] {text};
+            }
+
+            @Override
+            public boolean isDataFlavorSupported(DataFlavor flavor) {
+                return text.equals(flavor);
+            }
+
+            @Override
+            public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+                return clipboard.getData(flavor);
+            }
+        };
+        try (Reader reader = text.getReaderForText(single)) {
+            char[] head = new char[RichContent.minimumLargeChars()];
+            int length = 0;
+            int n;
+            while (length < head.length && (n = reader.read(head, length, head.length - length)) > 0) {
+                length += n;
+            }
+            for (int i = 0; i < length; i++) {
+                hash = (hash ^ head[i]) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    // Best plain text flavor, preferring one delivered as a stream
+    private static DataFlavor headFlavor(DataFlavor[] flavors) {
+        List<DataFlavor> streams = new ArrayList<>();
+        for (DataFlavor flavor : flavors) {
+            if (flavor.isMimeTypeEqual("text/plain") && flavor.isRepresentationClassInputStream()) {
+                streams.add(flavor);
+            }
         }
+        DataFlavor best = DataFlavor.selectBestTextFlavor(streams.toArray(new DataFlavor[0]));
+        return best != null ? best : DataFlavor.selectBestTextFlavor(flavors);
+    }
 
+    /**
+     * @param noticedAt when the change being read was noticed, or 0 to
+     *                  take it from the pending change
+     */
+    private void capture(int attempt, long noticedAt) {
+        changed.set(false);
+        long changeNoticed = noticedAt != 0 ? noticedAt : changedAt.getAndSet(0);
         try {
-            int retries = 5;
-            while (retries-- > 0) {
-                try {
-                    if (clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
-                        String text = (String) clipboard.getData(DataFlavor.stringFlavor);
-                        System.out.println("Clipboard content captured: " + text);
-                        
-                        // Add to the main window storage
-                        MainWindow.addClip(text);
-                        
-                        SwingUtilities.invokeLater(() -> {
-                            if (MainWindow.isWindowVisible()) {
-                                // Refresh will happen automatically through addClip
-                            }
-                        });
-                    } else {
-                        System.out.println("Clipboard contains non-text data, skipping.");
-                    }
-                    break;
-                } catch (IllegalStateException ex) {
-                    System.out.println("Clipboard locked, retries left: " + retries);
-                    if (retries == 0) {
-                        System.err.println("Failed to access clipboard after all retries");
-                    }
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e1) {
-                        e1.printStackTrace();
-                    }
-                } catch (Exception ex) {
-                    System.err.println("Unexpected error accessing clipboard: " + ex.getMessage());
-                    break;
+            // Taken as a poll takes it, so the clip is not noticed again
+            lastFingerprint = fingerprint();
+            String text = RichContent.read(clipboard, largeClipChars);
+            if (text != null) {
+                Metrics.CLIPS_CAPTURED.incrementAndGet();
+                if (captureLog.sample()) {
+                    Log.info("Clipboard content captured: " + RichContent.length(text) + " chars ("
+                        + captureLog.seen() + " so far)");
                 }
+
+                // Add to the main window storage
+                MainWindow.addClip(text, changeNoticed);
+            } else {
+                Log.debug("Clipboard contains unsupported data, skipping.");
+            }
+        } catch (IllegalStateException ex) {
+            if (attempt < MAX_RETRIES) {
+                long backoff = INITIAL_BACKOFF_MILLIS << attempt;
+                Metrics.CAPTURE_RETRIES.incrementAndGet();
+                Log.debug("Clipboard locked, retrying in " + backoff + " ms");
+                capturer.schedule(() -> capture(attempt + 1, changeNoticed), backoff, TimeUnit.MILLISECONDS);
+                return;
             }
-        } finally {
-            isProcessing.set(false);
+            Metrics.CAPTURE_DROPS.incrementAndGet();
+            Log.warn("Failed to access clipboard after all retries");
+        } catch (Exception ex) {
+            Metrics.CAPTURE_DROPS.incrementAndGet();
+            Log.error("Unexpected error accessing clipboard: " + ex.getMessage());
+        }
+
+        // Read again if the clipboard changed while it was being read
+        captureScheduled.set(false);
+        if (changed.get() && captureScheduled.compareAndSet(false, true)) {
+            capturer.execute(() -> capture(0, 0));
+        }
+    }
+
+    public String stats() {
+        String stats = Metrics.CLIPBOARD_EVENTS.get() + " events, " + Metrics.COALESCED_EVENTS.get() + " coalesced, "
+            + Metrics.CAPTURE_RETRIES.get() + " retried, " + Metrics.CAPTURE_DROPS.get() + " dropped";
+        if (polls.get() > 0) {
+            stats += ", " + polls.get() + " polls at " + averagePollCpuNanos() / 1000 + " us CPU each";
         }
+        return stats;
+    }
+
+    /**
+     * Average CPU time of the capture thread per poll, or -1 if thread CPU
+     * time is not supported.
+     */
+    public long averagePollCpuNanos() {
+        if (!threads.isCurrentThreadCpuTimeSupported()) return -1;
+        long count = polls.get();
+        return count > 0 ? pollCpuNanos.get() / count : 0;
+    }
+
+    public long pollCount() {
+        return polls.get();
+    }
+
+    public long eventCount() {
+        return Metrics.CLIPBOARD_EVENTS.get();
+    }
+
+    public long coalescedCount() {
+        return Metrics.COALESCED_EVENTS.get();
+    }
+
+    public long retriedCount() {
+        return Metrics.CAPTURE_RETRIES.get();
+    }
+
+    public long droppedCount() {
+        return Metrics.CAPTURE_DROPS.get();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Lazily populated catalog of the days in the history.
+ *
+ * {@link #scan()} only lists the days on disk and their clip counts. The
+ * clips of a day are loaded the first time they are asked for and kept in a
+ * small cache, so old days that are no longer looked at get evicted, least
+ * recently used first. Today is never evicted since new clips are added to
+ * it.
+ *
+ * The catalog is a single immutable {@link State} that every change replaces.
+ * Changes are made one at a time under a writer lock; readers only read the
+ * current state, so the EDT and searches never wait on the capture thread
+ * or on a day being loaded, and vice versa. The clips of a day are a
+ * {@link ClipList}, an append-only array shared by all snapshots of the day,
+ * so adding a clip neither copies the day nor disturbs a reader iterating an
+ * older snapshot.
+ */
+public class DayCatalog {
+    private static final int MAX_LOADED_DAYS = 14;
+
+    private final ClipJournal journal;
+    private final Object writeLock = new Object();
+    private volatile State state = new State(new TreeMap<>(Collections.reverseOrder()),
+        new HashMap<>(), null, 0, 0);
+
+    public DayCatalog(ClipJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Rebuilds the list of days from the file names in the data directory
+     * and drops every loaded day.
+     */
+    public void scan() {
+        NavigableMap<LocalDate, Integer> counts = new TreeMap<>(Collections.reverseOrder());
+        try {
+            for (LocalDate date : journal.listDays()) {
+                try {
+                    counts.put(date, journal.count(date));
+                } catch (IOException e) {
+                    Log.error("Error reading history for " + date + ", " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error reading data directory: " + e.getMessage());
+        }
+
+        synchronized (writeLock) {
+            State current = state;
+            Map<LocalDate, Day> loaded = new HashMap<>();
+            LocalDate today = current.today;
+
+            // Ensure current date is in the catalog. Clips of today that are
+            // still queued for writing are kept in memory across a rescan.
+            counts.putIfAbsent(LocalDate.now(), 0);
+            if (today != null && today.equals(LocalDate.now())) {
+                Day day = current.loaded.get(today);
+                loaded.put(today, day);
+                counts.put(today, Math.max(counts.get(today), day.clips.size()));
+            } else {
+                today = null;
+            }
+            state = new State(counts, loaded, today, current.version + 1, current.epoch + 1);
+        }
+    }
+
+    /**
+     * Returns all days, newest first.
+     */
+    public List<LocalDate> dates() {
+        return state.dates;
+    }
+
+    public long version() {
+        return state.version;
+    }
+
+    public int count(LocalDate date) {
+        return state.count(date);
+    }
+
+    public boolean isLoaded(LocalDate date) {
+        return state.loaded.containsKey(date);
+    }
+
+    /**
+     * Returns the clips of a day, newest first, loading them if needed. The
+     * list is a snapshot that later clips do not change.
+     */
+    public List<MainWindow.ClipEntry> get(LocalDate date) {
+        State current = state;
+        Day day = current.loaded.get(date);
+        if (day != null) {
+            day.lastUsed = System.nanoTime();
+            return day.clips;
+        }
+
+        // Load without holding up writers, then publish unless the day was
+        // removed or rescanned meanwhile
+        ClipList clips = load(date, current);
+        synchronized (writeLock) {
+            return publish(date, clips, current.epoch);
+        }
+    }
+
+    /**
+     * Returns the clips of a day as a list that stays stable while new clips
+     * are added.
+     */
+    public List<MainWindow.ClipEntry> snapshot(LocalDate date) {
+        return get(date);
+    }
+
+    /**
+     * Adds a new clip in front of its day.
+     *
+     * @return the ordinal of the clip within its day, counted from the
+     *         oldest, or -1 if it repeats the most recent clip of that day
+     */
+    public int add(MainWindow.ClipEntry entry) {
+        synchronized (writeLock) {
+            State current = state;
+            Day day = current.loaded.get(entry.date);
+            ClipList clips = day != null ? day.clips : publish(entry.date, load(entry.date, current), current.epoch);
+            if (!clips.isEmpty() && clips.get(0).getText().equals(entry.getText())) {
+                return -1;
+            }
+
+            current = state;
+            clips = clips.plus(entry);
+            Map<LocalDate, Day> loaded = new HashMap<>(current.loaded);
+            loaded.put(entry.date, new Day(clips));
+            evict(loaded, current.today);
+            if (current.counts.containsKey(entry.date)) {
+                state = current.with(loaded, current.today, current.version + 1);
+            } else {
+                NavigableMap<LocalDate, Integer> counts = copy(current.counts);
+                counts.put(entry.date, 0);
+                state = new State(counts, loaded, current.today, current.version + 1, current.epoch);
+            }
+            return clips.size() - 1;
+        }
+    }
+
+    public void remove(LocalDate date) {
+        synchronized (writeLock) {
+            State current = state;
+            NavigableMap<LocalDate, Integer> counts = copy(current.counts);
+            counts.remove(date);
+            Map<LocalDate, Day> loaded = new HashMap<>(current.loaded);
+            loaded.remove(date);
+            LocalDate today = date.equals(current.today) ? null : current.today;
+            state = new State(counts, loaded, today, current.version + 1, current.epoch + 1);
+        }
+    }
+
+    // Caches a loaded day, or returns the copy another thread cached first.
+    // Called with the writer lock held.
+    private ClipList publish(LocalDate date, ClipList clips, long epoch) {
+        State current = state;
+        Day existing = current.loaded.get(date);
+        if (existing != null) {
+            return existing.clips;
+        }
+
+        LocalDate now = LocalDate.now();
+        boolean isToday = date.equals(now);
+        if (current.epoch != epoch || (!isToday && !current.counts.containsKey(date))) {
+            return clips;
+        }
+
+        Map<LocalDate, Day> loaded = new HashMap<>(current.loaded);
+        loaded.put(date, new Day(clips));
+        if (!isToday) {
+            evict(loaded, current.today);
+            state = current.with(loaded, current.today, current.version);
+            return clips;
+        }
+
+        // Day rollover: yesterday becomes an ordinary cached day
+        NavigableMap<LocalDate, Integer> counts = copy(current.counts);
+        if (current.today != null && loaded.containsKey(current.today)) {
+            counts.put(current.today, loaded.get(current.today).clips.size());
+        }
+        counts.putIfAbsent(date, 0);
+        evict(loaded, date);
+        state = new State(counts, loaded, date, current.version, current.epoch);
+        return clips;
+    }
+
+    private static void evict(Map<LocalDate, Day> loaded, LocalDate today) {
+        while (loaded.size() - (loaded.containsKey(today) ? 1 : 0) > MAX_LOADED_DAYS) {
+            LocalDate eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<LocalDate, Day> entry : loaded.entrySet()) {
+                if (!entry.getKey().equals(today) && entry.getValue().lastUsed < eldestUse) {
+                    eldest = entry.getKey();
+                    eldestUse = entry.getValue().lastUsed;
+                }
+            }
+            loaded.remove(eldest);
+        }
+    }
+
+    private static NavigableMap<LocalDate, Integer> copy(NavigableMap<LocalDate, Integer> counts) {
+        NavigableMap<LocalDate, Integer> copy = new TreeMap<>(Collections.reverseOrder());
+        copy.putAll(counts);
+        return copy;
+    }
+
+    private ClipList load(LocalDate date, State current) {
+        if (!current.counts.containsKey(date)) {
+            return ClipList.EMPTY;
+        }
+
+        long start = System.nanoTime();
+        List<MainWindow.ClipEntry> clips = new ArrayList<>(current.counts.get(date));
+        try {
+            ClipJournal.Day day = journal.readDay(date);
+            for (ClipJournal.Record record : day.recent) {
+                clips.add(new MainWindow.ClipEntry(record.text, date, record.timestamp));
+            }
+            if (day.segment != null) {
+                for (int i = 0; i < day.segment.size(); i++) {
+                    clips.add(new MainWindow.ClipEntry(day.segment, i, date));
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error reading history for " + date + ", " + e.getMessage());
+        }
+        Metrics.HISTORY_LOAD.recordSince(start);
+        return ClipList.newestFirst(clips);
+    }
+
+    /**
+     * One version of the catalog. Nothing in it changes once published,
+     * except the last use of a day, which only steers eviction.
+     */
+    private static class State {
+        // Clip counts of the days as of the last scan; a loaded day has its own
+        final NavigableMap<LocalDate, Integer> counts;
+        final List<LocalDate> dates;
+        final Map<LocalDate, Day> loaded;
+        final LocalDate today;
+        // Bumped whenever clips or days are added or removed
+        final long version;
+        // Bumped when days are removed or rescanned, so that a day loaded
+        // from an older state is not cached
+        final long epoch;
+
+        State(NavigableMap<LocalDate, Integer> counts, Map<LocalDate, Day> loaded, LocalDate today,
+              long version, long epoch) {
+            this(counts, Collections.unmodifiableList(new ArrayList<>(counts.keySet())),
+                loaded, today, version, epoch);
+        }
+
+        private State(NavigableMap<LocalDate, Integer> counts, List<LocalDate> dates,
+                      Map<LocalDate, Day> loaded, LocalDate today, long version, long epoch) {
+            this.counts = counts;
+            this.dates = dates;
+            this.loaded = loaded;
+            this.today = today;
+            this.version = version;
+            this.epoch = epoch;
+        }
+
+        // The same days with other loaded clips
+        State with(Map<LocalDate, Day> loaded, LocalDate today, long version) {
+            return new State(counts, dates, loaded, today, version, epoch);
+        }
+
+        int count(LocalDate date) {
+            Day day = loaded.get(date);
+            return day != null ? day.clips.size() : counts.getOrDefault(date, 0);
+        }
+    }
+
+    private static class Day {
+        final ClipList clips;
+        volatile long lastUsed = System.nanoTime();
+
+        Day(ClipList clips) {
+            this.clips = clips;
+        }
+    }
+
+    /**
+     * Clips of a day, newest first, as an immutable snapshot.
+     *
+     * The clips are kept oldest first in an array that later snapshots of
+     * the day share: {@link #plus} writes past the end of this snapshot and
+     * only copies the array when it is full. That is safe because only the
+     * latest snapshot is ever added to, by the single writer, and a reader
+     * never looks past its own size.
+     */
+    static final class ClipList extends AbstractList<MainWindow.ClipEntry> implements RandomAccess {
+        static final ClipList EMPTY = new ClipList(new MainWindow.ClipEntry[0], 0);
+
+        private final MainWindow.ClipEntry[] items;
+        private final int size;
+
+        private ClipList(MainWindow.ClipEntry[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        static ClipList newestFirst(List<MainWindow.ClipEntry> clips) {
+            MainWindow.ClipEntry[] items = new MainWindow.ClipEntry[Math.max(16, clips.size() + clips.size() / 4)];
+            for (int i = 0; i < clips.size(); i++) {
+                items[clips.size() - 1 - i] = clips.get(i);
+            }
+            return new ClipList(items, clips.size());
+        }
+
+        ClipList plus(MainWindow.ClipEntry entry) {
+            MainWindow.ClipEntry[] target = items;
+            if (size == items.length) {
+                target = Arrays.copyOf(items, Math.max(16, size * 2));
+            }
+            target[size] = entry;
+            return new ClipList(target, size + 1);
+        }
+
+        @Override
+        public MainWindow.ClipEntry get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return items[size - 1 - index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped view of a compacted day file ({@code yyyy-MM-dd.seg}).
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int    magic 'CLPS'
+ *   int    format version
+ *   int    entry count n
+ *   int    preview version (since format version 2)
+ *   long[n] entry offsets
+ *   long[n] capture timestamps (epoch millis)
+ *   long[n] blob keys (since 3)
+ *   n x { int length, length bytes of UTF-8 (up to 2),
+ *         int preview length, preview length bytes of UTF-8 (since 2) }
+ * </pre>
+ * Entries are stored newest first. Since format version 3 the clip texts
+ * live in the {@link BlobStore} and the segment only holds their keys;
+ * older versions are still read so they can be migrated.
+ *
+ * Opening a segment only maps the file and reads the header, each text is
+ * fetched when it is asked for. Stored card previews are only used while
+ * their version matches {@link ClipPreview#VERSION}.
+ */
+public class DaySegment {
+    static final int MAGIC = 0x434C5053;
+    static final int VERSION = 3;
+
+    private static final int HEADER_BYTES_V1 = 3 * Integer.BYTES;
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final BlobStore blobs;
+    private final int version;
+    private final int headerBytes;
+    private final int count;
+    private final boolean hasPreviews;
+
+    private DaySegment(MappedByteBuffer buffer, BlobStore blobs) throws IOException {
+        this.buffer = buffer;
+        this.blobs = blobs;
+        if (buffer.capacity() < HEADER_BYTES_V1 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a clip segment");
+        }
+        this.version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported segment version " + version);
+        }
+        this.headerBytes = version == 1 ? HEADER_BYTES_V1 : HEADER_BYTES;
+        this.count = buffer.getInt(8);
+        int tables = version >= 3 ? 3 : 2;
+        if (count < 0 || headerBytes + (long) count * tables * Long.BYTES > buffer.capacity()) {
+            throw new IOException("Corrupt segment header");
+        }
+        this.hasPreviews = version >= 2 && buffer.getInt(12) == ClipPreview.VERSION;
+    }
+
+    public static DaySegment open(Path file, BlobStore blobs) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new DaySegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), blobs);
+        }
+    }
+
+    /**
+     * Reads the entry count from the header without mapping the file.
+     */
+    public static int readCount(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES_V1);
+            if (channel.read(header, 0) < HEADER_BYTES_V1 || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a clip segment");
+            }
+            return header.getInt(8);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public long timestamp(int index) {
+        return buffer.getLong(headerBytes + (count + index) * Long.BYTES);
+    }
+
+    public String text(int index) {
+        if (version >= 3) {
+            try {
+                return blobs.text(key(index));
+            } catch (IOException e) {
+                Log.error("Error reading clip text: " + e.getMessage());
+                return "";
+            }
+        }
+
+        int offset = entryOffset(index);
+        return new String(bytes(offset + Integer.BYTES, buffer.getInt(offset)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the blob key of an entry; only valid since format version 3.
+     */
+    public long key(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Entry " + index + " of " + count);
+        }
+        return buffer.getLong(headerBytes + (2 * count + index) * Long.BYTES);
+    }
+
+    /**
+     * Returns the blob keys of all entries; empty before format version 3.
+     */
+    public long[] keys() {
+        if (version < 3) {
+            return new long[0];
+        }
+
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(i);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the stored card preview of an entry, or null if the segment
+     * has none in the current preview format.
+     */
+    public String preview(int index) {
+        byte[] bytes = previewBytes(index);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Returns the raw UTF-8 preview of an entry, or null if the segment has
+     * none in the current preview format.
+     */
+    byte[] previewBytes(int index) {
+        int offset = entryOffset(index);
+        if (!hasPreviews) {
+            return null;
+        }
+
+        // Up to version 2 the preview follows the inline payload
+        int previewOffset = version >= 3 ? offset : offset + Integer.BYTES + buffer.getInt(offset);
+        return bytes(previewOffset + Integer.BYTES, buffer.getInt(previewOffset));
+    }
+
+    private int entryOffset(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Entry " + index + " of " + count);
+        }
+        return (int) buffer.getLong(headerBytes + index * Long.BYTES);
+    }
+
+    private byte[] bytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Renders the preview of a clip for storing in a segment.
+     */
+    static byte[] renderPreview(String text) {
+        return ClipPreview.render(text).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a segment holding the given blob keys and previews (newest
+     * first) through a temporary file and an atomic rename.
+     */
+    public static void write(Path file, long[] keys, List<byte[]> previews,
+                             List<Long> timestamps) throws IOException {
+        int count = keys.length;
+        long total = HEADER_BYTES + (long) count * 3 * Long.BYTES;
+        for (byte[] preview : previews) {
+            total += Integer.BYTES + preview.length;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Segment too large: " + total + " bytes");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) total);
+        out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(ClipPreview.VERSION);
+
+        long offset = HEADER_BYTES + (long) count * 3 * Long.BYTES;
+        for (byte[] preview : previews) {
+            out.putLong(offset);
+            offset += Integer.BYTES + preview.length;
+        }
+        for (Long timestamp : timestamps) {
+            out.putLong(timestamp);
+        }
+        for (long key : keys) {
+            out.putLong(key);
+        }
+        for (byte[] preview : previews) {
+            out.putInt(preview.length).put(preview);
+        }
+        out.flip();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,242 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+
+/**
+ * Finds UI freezes and Swing threading mistakes in the field.
+ *
+ * An event queue pushed in front of the system one notes when every event
+ * dispatch starts. A watchdog thread looks every {@value #CHECK_MILLIS} ms
+ * and, once a dispatch runs longer than the threshold, records the stack of
+ * the EDT, again every {@value #RESAMPLE_MILLIS} ms while it stays stuck.
+ * A repaint manager records the stack of any thread other than the EDT
+ * that invalidates or paints a component, except for {@code repaint()}
+ * called directly, which is thread safe. Each offending call site is
+ * recorded once.
+ *
+ * Findings are queued and written by the watchdog thread, so the EDT never
+ * waits on the disk. They go to {@code diagnostics.log} in the data
+ * directory, which is rolled over to {@code diagnostics.log.1} at
+ * {@value #MAX_FILE_BYTES} bytes.
+ */
+public class EdtWatchdog {
+    private static final long CHECK_MILLIS = 50;
+    private static final long RESAMPLE_MILLIS = 2000;
+    private static final long DEFAULT_STALL_MILLIS = 200;
+    private static final long MAX_FILE_BYTES = 1 << 20;
+    private static final int MAX_VIOLATION_SITES = 256;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final long thresholdNanos;
+    private final Path file;
+
+    // Start of the dispatch in progress, 0 when the EDT is idle. A nested
+    // loop, e.g. of a modal dialog, leaves it 0 while it waits for events.
+    private volatile long dispatchStart = 0;
+    private volatile Thread dispatchThread;
+    private volatile AWTEvent dispatchEvent;
+    // Dispatches so far, only touched on the EDT
+    private long dispatches = 0;
+
+    // Only touched by the watchdog thread
+    private long reportedStart = 0;
+    private long nextReportNanos = 0;
+
+    private final Set<String> violationSites = new HashSet<>();
+    // Entries not yet written, drained by the watchdog thread
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+
+    EdtWatchdog(Path file, long thresholdMillis) {
+        this.file = file;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Installs the watchdog unless turned off with the {@code edtWatchdog}
+     * preference; the threshold is the {@code edtStallMillis} preference.
+     */
+    public static void install() {
+        Preferences prefs = Preferences.userRoot().node("clipboardapp");
+        if (!prefs.getBoolean("edtWatchdog", true)) return;
+
+        Path file = Paths.get(System.getProperty("user.home"), ".clipboardapp", "diagnostics.log");
+        EdtWatchdog watchdog = new EdtWatchdog(file, Math.max(CHECK_MILLIS,
+            prefs.getLong("edtStallMillis", DEFAULT_STALL_MILLIS)));
+        watchdog.start();
+    }
+
+    void start() {
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimedEventQueue());
+        SwingUtilities.invokeLater(() -> RepaintManager.setCurrentManager(new CheckingRepaintManager()));
+
+        Thread thread = new Thread(this::watch, "edt-watchdog");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+        Log.info("EDT watchdog started, stalls over " + TimeUnit.NANOSECONDS.toMillis(thresholdNanos)
+            + " ms go to " + file);
+    }
+
+    private void watch() {
+        while (true) {
+            try {
+                Thread.sleep(CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            write();
+
+            long start = dispatchStart;
+            Thread edt = dispatchThread;
+            AWTEvent event = dispatchEvent;
+            if (start == 0 || edt == null) continue;
+
+            long now = System.nanoTime();
+            if (now - start < thresholdNanos) continue;
+            if (start == reportedStart && now < nextReportNanos) continue;
+
+            StackTraceElement[] stack = edt.getStackTrace();
+            // The dispatch may have ended while the stack was taken
+            if (dispatchStart != start) continue;
+
+            if (start != reportedStart) {
+                Metrics.EDT_STALLS.incrementAndGet();
+            }
+            reportedStart = start;
+            nextReportNanos = now + TimeUnit.MILLISECONDS.toNanos(RESAMPLE_MILLIS);
+            record("EDT stalled for " + TimeUnit.NANOSECONDS.toMillis(now - start) + " ms dispatching "
+                + describe(event), stack);
+        }
+    }
+
+    private void dispatched(AWTEvent event, long start) {
+        long elapsed = System.nanoTime() - start;
+        if (elapsed >= thresholdNanos) {
+            record("EDT event took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms: " + describe(event), null);
+        }
+    }
+
+    private void offEdtAccess(JComponent component) {
+        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+        String site = null;
+        // repaint() is thread safe, but not the Swing setter that called it
+        boolean repaint = false;
+        boolean fromSwing = false;
+        for (StackTraceElement frame : stack) {
+            String type = frame.getClassName();
+            if (frame.getMethodName().equals("repaint")) {
+                repaint = true;
+                fromSwing = false;
+            } else if (repaint && type.startsWith("javax.swing.")) {
+                fromSwing = true;
+            }
+            if (site == null && !type.startsWith("java.") && !type.startsWith("javax.")
+                    && !type.startsWith("sun.") && !type.startsWith("jdk.")
+                    && !type.equals(getClass().getName()) && !type.startsWith(getClass().getName() + "$")) {
+                site = frame.toString();
+            }
+        }
+        if (repaint && !fromSwing) return;
+
+        Metrics.OFF_EDT_ACCESSES.incrementAndGet();
+        synchronized (violationSites) {
+            if (violationSites.size() >= MAX_VIOLATION_SITES || !violationSites.add(String.valueOf(site))) {
+                return;
+            }
+        }
+        record("Swing accessed off the EDT from " + Thread.currentThread().getName()
+            + ": " + component.getClass().getName(), stack);
+    }
+
+    private static String describe(AWTEvent event) {
+        if (event == null) return "an event";
+        Object source = event.getSource();
+        return event.getClass().getSimpleName() + " from "
+            + (source != null ? source.getClass().getName() : "nothing");
+    }
+
+    private void record(String message, StackTraceElement[] stack) {
+        StringBuilder entry = new StringBuilder();
+        entry.append(LocalDateTime.now().format(TIME)).append(' ').append(message).append('\n');
+        if (stack != null) {
+            for (StackTraceElement frame : stack) {
+                entry.append("    at ").append(frame).append('\n');
+            }
+        }
+        Log.warn(message);
+        pending.add(entry.toString());
+    }
+
+    // Appends the queued entries to the file. Only called by the watchdog thread.
+    private void write() {
+        if (pending.isEmpty()) return;
+
+        StringBuilder entries = new StringBuilder();
+        for (String entry; (entry = pending.poll()) != null; ) {
+            entries.append(entry);
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            if (Files.exists(file) && Files.size(file) > MAX_FILE_BYTES) {
+                Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.write(file, entries.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.error("Error writing diagnostics: " + e.getMessage());
+        }
+    }
+
+    private class TimedEventQueue extends EventQueue {
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            long start = System.nanoTime();
+            long before = ++dispatches;
+            dispatchThread = Thread.currentThread();
+            dispatchEvent = event;
+            dispatchStart = start;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                dispatchStart = 0;
+                dispatchEvent = null;
+                // Events dispatched by a nested loop were timed on their own
+                if (dispatches == before) {
+                    dispatched(event, start);
+                }
+            }
+        }
+    }
+
+    private class CheckingRepaintManager extends RepaintManager {
+        @Override
+        public void addInvalidComponent(JComponent component) {
+            if (!SwingUtilities.isEventDispatchThread()) {
+                offEdtAccess(component);
+            }
+            super.addInvalidComponent(component);
+        }
+
+        @Override
+        public void addDirtyRegion(JComponent component, int x, int y, int width, int height) {
+            if (!SwingUtilities.isEventDispatchThread()) {
+                offEdtAccess(component);
+            }
+            super.addDirtyRegion(component, x, y, width, height);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * fzf-style fuzzy matching: the query characters have to appear in order,
+ * not necessarily next to each other.
+ *
+ * Texts are first checked against a 64-bit character mask, one bit per
+ * character class, which rejects most non-candidates with a single AND.
+ * A candidate is then matched forward to find where the query ends and
+ * backward to find the shortest window that still contains it. Within
+ * that window every matched character scores, with bonuses for runs of
+ * consecutive matches and for matches at word boundaries, and gaps cost a
+ * penalty. Newer clips get a recency bonus.
+ *
+ * Only the best results are kept, in a bounded min-heap ({@link TopK}).
+ */
+public class FuzzyMatcher {
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_BOUNDARY = 8;
+    private static final int BONUS_CONSECUTIVE = 6;
+    private static final int PENALTY_GAP_START = -3;
+    private static final int PENALTY_GAP_EXTENSION = -1;
+    private static final int RECENCY_BONUS = 24;
+
+    /**
+     * Returns the character mask of a case-folded text; the mask of a text
+     * contains the mask of every query that can match it.
+     */
+    public static long mask(CharSequence folded) {
+        long mask = 0;
+        for (int i = 0; i < folded.length(); i++) {
+            mask |= 1L << (folded.charAt(i) & 63);
+        }
+        return mask;
+    }
+
+    public static boolean mayMatch(long textMask, long queryMask) {
+        return (textMask & queryMask) == queryMask;
+    }
+
+    /**
+     * Scores a case-folded query against a text.
+     *
+     * @param folded    the case-folded text, the same length as the original
+     * @param original  the text, used to find word boundaries
+     * @param positions receives the matched offsets if not null
+     * @return the score, or {@link #NO_MATCH}
+     */
+    public static int score(String folded, String original, String query, int[] positions) {
+        int length = query.length();
+        if (length == 0) return 0;
+
+        // Forward: the earliest end of a match
+        int q = 0;
+        int end = -1;
+        for (int i = 0; i < folded.length(); i++) {
+            if (folded.charAt(i) == query.charAt(q) && ++q == length) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) return NO_MATCH;
+
+        // Backward: the latest start that still matches up to that end
+        q = length - 1;
+        int start = end;
+        for (int i = end; i >= 0; i--) {
+            if (folded.charAt(i) == query.charAt(q) && --q < 0) {
+                start = i;
+                break;
+            }
+        }
+
+        int score = 0;
+        int previous = -2;
+        boolean inGap = false;
+        q = 0;
+        for (int i = start; i <= end && q < length; i++) {
+            if (folded.charAt(i) == query.charAt(q)) {
+                score += SCORE_MATCH;
+                if (isBoundary(original, i)) score += BONUS_BOUNDARY;
+                if (previous == i - 1) score += BONUS_CONSECUTIVE;
+                if (positions != null) positions[q] = i;
+                previous = i;
+                inGap = false;
+                q++;
+            } else {
+                score += inGap ? PENALTY_GAP_EXTENSION : PENALTY_GAP_START;
+                inGap = true;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Bonus for clips of recent days, halving with every day of age.
+     */
+    public static int recencyBonus(LocalDate date, LocalDate today) {
+        // Past 31 days the shift would wrap around; the bonus is 0 by then
+        long age = Math.min(31, Math.max(0, ChronoUnit.DAYS.between(date, today)));
+        return RECENCY_BONUS >> age;
+    }
+
+    private static boolean isBoundary(String text, int i) {
+        if (i == 0) return true;
+        char previous = text.charAt(i - 1);
+        char current = text.charAt(i);
+        return !Character.isLetterOrDigit(previous)
+            || (Character.isLowerCase(previous) && Character.isUpperCase(current));
+    }
+
+    /**
+     * Keeps the {@code limit} best scored values; ties go to the newer one.
+     */
+    public static class TopK<T> {
+        private final int limit;
+        private final PriorityQueue<Scored<T>> heap;
+
+        public TopK(int limit) {
+            this.limit = Math.max(1, limit);
+            this.heap = new PriorityQueue<>(this.limit + 1);
+        }
+
+        /**
+         * Whether a value with this score would be kept, so callers can
+         * skip building values that would be dropped right away.
+         */
+        public boolean accepts(int score, long timestamp) {
+            if (heap.size() < limit) return true;
+            Scored<T> worst = heap.peek();
+            return score > worst.score || (score == worst.score && timestamp > worst.timestamp);
+        }
+
+        public void offer(T value, int score, long timestamp) {
+            if (!accepts(score, timestamp)) return;
+            heap.add(new Scored<>(value, score, timestamp));
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+
+        /**
+         * Returns the kept values, best first.
+         */
+        public List<T> sorted() {
+            List<Scored<T>> scored = new ArrayList<>(heap);
+            Collections.sort(scored, Collections.reverseOrder());
+            List<T> values = new ArrayList<>(scored.size());
+            for (Scored<T> entry : scored) {
+                values.add(entry.value);
+            }
+            return values;
+        }
+    }
+
+    private static class Scored<T> implements Comparable<Scored<T>> {
+        final T value;
+        final int score;
+        final long timestamp;
+
+        Scored(T value, int score, long timestamp) {
+            this.value = value;
+            this.score = score;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int compareTo(Scored<T> other) {
+            if (score != other.score) return Integer.compare(score, other.score);
+            return Long.compare(timestamp, other.timestamp);
+        }
+    }
+}
@@ -19,13 +19,12 @@ public class GlobalHotkeyManager implements NativeKeyListener {
         try {
             GlobalScreen.registerNativeHook();
         } catch (NativeHookException ex) {
-            System.err.println("Failed to register native hook:");
-            ex.printStackTrace();
+            Log.error("Failed to register native hook", ex);
             return;
         }
         
         GlobalScreen.addNativeKeyListener(this);
-        System.out.println("Global hotkey listener started");
+        Log.info("Global hotkey listener started");
     }
 
     @Override
@@ -34,6 +33,10 @@ public class GlobalHotkeyManager implements NativeKeyListener {
         if (e.getKeyCode() == HOTKEY_SHIFT) shiftPressed = true;
         
         if (ctrlPressed && shiftPressed && e.getKeyCode() == HOTKEY_ALT) {
+            // Recorded once the window paints
+            long pressedAt = System.nanoTime();
+            Metrics.HOTKEY_PROBE.arm(pressedAt);
+            Metrics.FIRST_VISIBLE_PROBE.armFirst(pressedAt);
             SwingUtilities.invokeLater(() -> {
                 // Use invokeLater to ensure proper focus handling
                 EventQueue.invokeLater(() -> {
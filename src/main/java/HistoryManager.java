@@ -1,58 +1,113 @@
-import java.util.*;
-import java.util.stream.Collectors;
+import java.time.LocalDate;
+import java.util.List;
 
+/**
+ * The clip history shared by the capture thread and the EDT.
+ *
+ * Every change goes through this class, which keeps the day catalog and
+ * the search index consistent under one lock. The days and their clips are
+ * read from the catalog's snapshots without taking that lock, so rendering
+ * a day never waits on a capture.
+ *
+ * Searching the history is up to {@link SearchService}; {@link #fold} and
+ * {@link #indexOfFolded} are the case folding it matches with.
+ */
 public class HistoryManager {
-    private static HistoryManager instance;
-    private List<String> history = new ArrayList<>();
-    private int maxHistory = 100;
+    private static class Holder {
+        static final HistoryManager INSTANCE = new HistoryManager();
+    }
+
+    private volatile DayCatalog catalog;
+    private TrigramIndex index;
 
     public static HistoryManager getInstance() {
-        if (instance == null) {
-            instance = new HistoryManager();
-        }
+        return Holder.INSTANCE;
+    }
 
-        return instance;
+    /**
+     * Attaches the storage behind the history.
+     */
+    public synchronized void open(DayCatalog catalog, TrigramIndex index) {
+        this.catalog = catalog;
+        this.index = index;
     }
 
-    public void addEntry(String text) {
-        if (text == null || text.trim().isEmpty()) return;
+    /**
+     * Adds a captured clip in front of its day.
+     *
+     * @return the ordinal of the clip within its day, or -1 if it repeats
+     *         the most recent clip and was not added
+     */
+    public synchronized int addEntry(MainWindow.ClipEntry entry) {
+        int ordinal = catalog.add(entry);
+        if (ordinal < 0) {
+            return -1;
+        }
 
-        if (!history.isEmpty()) {
-            String last = history.get(0);
+        index.add(entry.date, ordinal, entry.getText());
+        return ordinal;
+    }
 
-            if (last.equals(text)) return;
-            if (history.size() > 1 && history.get(1).equals(text)) {
-                history.remove(1);
-            }
-        }
+    public List<LocalDate> dates() {
+        return catalog.dates();
+    }
 
-        history.remove(text);
-        history.add(0, text);
+    public List<MainWindow.ClipEntry> snapshot(LocalDate date) {
+        return catalog.snapshot(date);
+    }
 
-        if (history.size() > maxHistory) {
-            history = new ArrayList<>(history.subList(0, maxHistory));
-        }
+    /**
+     * Drops a day from the history, e.g. when it expires.
+     */
+    public synchronized void removeDay(LocalDate date) {
+        catalog.remove(date);
+        index.remove(date);
     }
 
-    public List<SearchResult> search(String query) {
-        return history.stream()
-            .filter(item -> item.toLowerCase().contains(query.toLowerCase()))
-            .map(item -> {
-                int start = item.toLowerCase().indexOf(query.toLowerCase());
-                return new SearchResult(item, start, start + query.length());
-            })
-            .collect(Collectors.toList());
+    /**
+     * Returns the offset of a case-folded query in a text, folding the text
+     * char by char as {@link #fold} does, or -1.
+     */
+    static int indexOfFolded(String text, String query, int from) {
+        int last = text.length() - query.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int k = 0; k < query.length(); k++) {
+                if (fold(text.charAt(i + k)) != query.charAt(k)) continue outer;
+            }
+            return i;
+        }
+        return -1;
     }
 
-    public static class SearchResult {
-        public final String text;
-        public final int highlightStart;
-        public final int highlightEnd;
+    /**
+     * Case-folds char by char, keeping the length and so the offsets of the
+     * original text.
+     */
+    static String fold(String text) {
+        char[] chars = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char lower = fold(c);
+            if (lower != c) {
+                if (chars == null) {
+                    chars = text.toCharArray();
+                }
+                chars[i] = lower;
+            }
+        }
+        return chars != null ? new String(chars) : text;
+    }
 
-        public SearchResult(String text, int highlightStart, int highlightEnd) {
-            this.text = text;
-            this.highlightStart = highlightStart;
-            this.highlightEnd = highlightEnd;
+    /**
+     * Folds one char through its upper case, so that the forms of a letter
+     * that String.toLowerCase tells apart by context, e.g. final sigma or
+     * dotted and dotless i, fold alike.
+     */
+    static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
         }
+        return Character.toLowerCase(Character.toUpperCase(c));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,158 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in the manner of HdrHistogram.
+ *
+ * Latencies are counted in microseconds, in buckets that are one
+ * microsecond wide below 128 us and then double in width with every power
+ * of two, 64 to a power. Every value up to an hour is so kept to within
+ * 1.6%, in a fixed array of counters. Recording is lock-free and does not
+ * allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int BUCKETS = index(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.min(MAX_MICROS, Math.max(0, nanos / 1000));
+        counts.incrementAndGet(index(micros));
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // Retry against the newer maximum
+        }
+    }
+
+    /**
+     * Records the time passed since {@code startNanos}, a
+     * {@link System#nanoTime} reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    /**
+     * Returns the count, mean, maximum and percentiles recorded so far.
+     * Taken while values are recorded, it may be off by those values.
+     */
+    public Summary summary() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        double mean = count > 0 ? sumMicros.get() / 1000.0 / count : 0;
+        return new Summary(count, mean, maxMicros.get() / 1000.0,
+            percentile(snapshot, count, 0.50), percentile(snapshot, count, 0.90),
+            percentile(snapshot, count, 0.99), percentile(snapshot, count, 0.999));
+    }
+
+    // In milliseconds, the top of the bucket holding the percentile
+    private static double percentile(long[] counts, long count, double fraction) {
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestEquivalent(i) / 1000.0;
+            }
+        }
+        return highestEquivalent(counts.length - 1) / 1000.0;
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+
+        // Keep the top SUB_BUCKET_BITS - 1 bits below the leading one
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+        return (shift + 1) * HALF + (int) (micros >>> shift) - HALF;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int shift = index / HALF - 1;
+        long lowest = (long) (index % HALF + HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Latencies in milliseconds.
+     */
+    public static class Summary {
+        private final long count;
+        private final double mean;
+        private final double max;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+
+        Summary(long count, double mean, double max, double p50, double p90, double p99, double p999) {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f ms",
+                count, mean, p50, p90, p99, p999, max);
+        }
+    }
+}
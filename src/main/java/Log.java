@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Level-controlled logging to standard out and error.
+ *
+ * The level comes from the {@code clipboardapp.log} system property
+ * (ERROR, WARN, INFO or DEBUG, INFO by default) and can be changed at
+ * runtime through the metrics MBean. Messages that would otherwise be
+ * written for every clip go through a {@link Sampler}.
+ */
+public class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static volatile Level level = parse(System.getProperty("clipboardapp.log"), Level.INFO);
+
+    public static Level level() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0;
+    }
+
+    public static void error(String message) {
+        if (isEnabled(Level.ERROR)) System.err.println(message);
+    }
+
+    public static void error(String message, Throwable cause) {
+        if (isEnabled(Level.ERROR)) {
+            System.err.println(message);
+            cause.printStackTrace();
+        }
+    }
+
+    public static void warn(String message) {
+        if (isEnabled(Level.WARN)) System.err.println(message);
+    }
+
+    public static void info(String message) {
+        if (isEnabled(Level.INFO)) System.out.println(message);
+    }
+
+    public static void debug(String message) {
+        if (isEnabled(Level.DEBUG)) System.out.println(message);
+    }
+
+    static Level parse(String name, Level fallback) {
+        if (name == null) return fallback;
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Lets through the first of every {@code period} messages of a kind at
+     * INFO, and all of them at DEBUG.
+     */
+    public static class Sampler {
+        private final long period;
+        private final AtomicLong seen = new AtomicLong();
+
+        public Sampler(long period) {
+            this.period = Math.max(1, period);
+        }
+
+        /**
+         * Counts a message and returns whether it should be logged.
+         */
+        public boolean sample() {
+            long n = seen.getAndIncrement();
+            return isEnabled(Level.DEBUG) || (isEnabled(Level.INFO) && n % period == 0);
+        }
+
+        public long seen() {
+            return seen.get();
+        }
+    }
+}
@@ -1,41 +1,67 @@
 import javax.swing.*;
 import javax.swing.Timer;
+import javax.swing.border.Border;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
 
 public class MainWindow {
+    // Days whose search index prewarm() loads
+    private static final int PREWARM_DAYS = 7;
+
     private static JFrame frame;
     private static JTextField searchField;
-    private static JPanel clipsPanel;
+    private static JComboBox<SearchService.Mode> searchMode;
+    private static ClipGrid clipsGrid;
+    private static ClipListModel clipsModel;
     private static JPanel leftSidebar;
     private static JScrollPane clipsScrollPane;
     private static JTextArea detailViewer;
     private static JScrollPane detailScrollPane;
     private static boolean isWindowCreated = false;
     private static boolean isWindowVisible = false;
+    // Set while the window is painted offscreen, which is not a latency sample
+    private static boolean paintingOffscreen = false;
+    private static volatile boolean prewarmed = false;
     private static Point initialClick;
     
     // Configuration
     private static int retentionDays = 10;
+    private static int quotaMegabytes = 0;
     private static Path dataDirectory;
     private static Preferences prefs;
+    private static BlobStore blobs;
+    static TextArena textArena;
+    private static ClipJournal journal;
+    private static PersistenceWriter writer;
     
     // Current state
     private static LocalDate currentDate = LocalDate.now();
-    private static Map<LocalDate, List<ClipEntry>> dateClipsMap = new HashMap<>();
+    private static DayCatalog catalog;
+    private static HistoryManager history;
+    private static TrigramIndex searchIndex;
+    private static SearchService searchService;
+    private static RetentionService retention;
+    // Sidebar button and spacer of each previous day
+    private static final Map<LocalDate, Component[]> dayButtons = new HashMap<>();
     private static boolean settingsDialogOpen = false;
+    private static SwingWorker<Void, String> detailLoader;
 
     public static void showWindow() {
+        // Only a tray click gets here unarmed, the hotkey armed it when pressed
+        Metrics.FIRST_VISIBLE_PROBE.armFirst(System.nanoTime());
         if (!isWindowCreated) {
             createWindow();
             isWindowCreated = true;
@@ -74,10 +100,13 @@ public class MainWindow {
         }
     }
 
-    private static void createWindow() {
+    private static synchronized void initStorage() {
+        if (journal != null) return;
+
         // Load configuration
         prefs = Preferences.userRoot().node("clipboardapp");
         retentionDays = prefs.getInt("retentionDays", 10);
+        quotaMegabytes = prefs.getInt("historyQuotaMb", 0);
         
         // Set up data directory
         String userHome = System.getProperty("user.home");
@@ -86,12 +115,128 @@ public class MainWindow {
             try {
                 Files.createDirectories(dataDirectory);
             } catch (IOException e) {
-                System.err.println("Failed to create data directory: " + e.getMessage());
+                Log.error("Failed to create data directory: " + e.getMessage());
             }
         }
         
-        // Load existing data
-        loadHistory();
+        // Optionally keep in-memory clip texts off the Java heap
+        if (prefs.getBoolean("offHeapText", false)) {
+            textArena = new TextArena();
+        }
+        
+        // Clip texts of all days are stored once in a shared blob pack
+        blobs = new BlobStore(dataDirectory.resolve("blobs.pack"));
+        journal = new ClipJournal(dataDirectory, blobs);
+        
+        // Convert day files of older formats
+        SegmentMigrator.migrate(dataDirectory, journal);
+        
+        // Fold journals of days that are already over into their day files
+        journal.compactClosedDays(LocalDate.now());
+        
+        // Clips are written by a dedicated thread in batches
+        PersistenceWriter.Durability durability;
+        try {
+            durability = PersistenceWriter.Durability.valueOf(
+                prefs.get("durability", PersistenceWriter.Durability.FSYNC.name()));
+        } catch (IllegalArgumentException e) {
+            durability = PersistenceWriter.Durability.FSYNC;
+        }
+        writer = new PersistenceWriter(journal, prefs.getLong("flushIntervalMs", 50), durability);
+        
+        catalog = new DayCatalog(journal);
+        catalog.scan();
+        searchIndex = new TrigramIndex(dataDirectory, catalog);
+        searchService = new SearchService(catalog, searchIndex);
+        history = HistoryManager.getInstance();
+        history.open(catalog, searchIndex);
+        
+        // Expired days are deleted in the background, the views follow its events
+        retention = new RetentionService(journal, history, retentionDays, quotaMegabytes * 1024L * 1024L);
+        retention.start();
+        TextArena.logMemoryUsage("after startup" + (textArena != null ? " (off-heap text)" : ""));
+    }
+    
+    /**
+     * Gets the first show of the window ready ahead of time, if turned on
+     * with the {@code prewarm} preference. On a low-priority thread it loads
+     * the day catalog and today's clips and the search index of the last
+     * {@value #PREWARM_DAYS} days, then creates the window on the EDT,
+     * realizes it without showing it and paints it offscreen, which loads
+     * the fonts and renders the first page of cards.
+     */
+    public static void prewarm() {
+        if (!Preferences.userRoot().node("clipboardapp").getBoolean("prewarm", false)) return;
+
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            initStorage();
+            List<LocalDate> dates = history.dates();
+            history.snapshot(LocalDate.now());
+            for (LocalDate date : dates.subList(0, Math.min(PREWARM_DAYS, dates.size()))) {
+                searchIndex.warm(date);
+            }
+
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    if (!isWindowCreated) {
+                        createWindow();
+                        isWindowCreated = true;
+                    }
+                });
+                // Separately, so that a hotkey press in between is served
+                SwingUtilities.invokeAndWait(MainWindow::renderOffscreen);
+            } catch (InterruptedException e) {
+                return;
+            } catch (InvocationTargetException e) {
+                Log.warn("Pre-warming the window failed: " + e.getCause());
+                return;
+            }
+            prewarmed = true;
+            Log.info("Pre-warmed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }, "clip-prewarm");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void renderOffscreen() {
+        if (isWindowVisible) return;
+
+        frame.addNotify();
+        refreshClips(currentDate);
+        frame.validate();
+
+        JRootPane root = frame.getRootPane();
+        BufferedImage image = new BufferedImage(root.getWidth(), root.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        paintingOffscreen = true;
+        try {
+            root.paint(g);
+        } finally {
+            paintingOffscreen = false;
+            g.dispose();
+        }
+    }
+
+    /**
+     * Writes out every clip accepted so far. Called from the shutdown hook.
+     */
+    public static void shutdown() {
+        PersistenceWriter current;
+        synchronized (MainWindow.class) {
+            current = writer;
+        }
+        if (current != null) {
+            current.close(5000);
+            searchIndex.flush();
+            TextArena.logMemoryUsage("at shutdown");
+        }
+    }
+
+    private static void createWindow() {
+        // Scans the day catalog, clips of a day are loaded when first shown
+        initStorage();
         
         // Create a completely frameless window
         frame = new JFrame();
@@ -111,6 +256,13 @@ public class MainWindow {
                 g2.setColor(new Color(45, 45, 48));
                 g2.fillRoundRect(0, 0, getWidth(), getHeight(), 15, 15);
                 g2.dispose();
+                if (paintingOffscreen) return;
+
+                Metrics.HOTKEY_PROBE.painted();
+                if (Metrics.FIRST_VISIBLE_PROBE.painted()) {
+                    Log.info("Window first visible after " + Metrics.FIRST_VISIBLE.summary().getMax() + " ms"
+                        + (prewarmed ? " (pre-warmed)" : ""));
+                }
             }
         };
         mainPanel.setLayout(new BorderLayout(0, 0));
@@ -187,6 +339,14 @@ public class MainWindow {
         searchField.setFont(new Font("Segoe UI", Font.PLAIN, 16));
         searchField.putClientProperty("JTextField.placeholderText", "Search across all history...");
         
+        // Substring or fuzzy matching
+        searchMode = new JComboBox<>(SearchService.Mode.values());
+        searchMode.setBackground(new Color(60, 60, 60));
+        searchMode.setForeground(Color.WHITE);
+        searchMode.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        searchMode.setFocusable(false);
+        searchMode.addActionListener(e -> performSearch());
+        
         searchField.getDocument().addDocumentListener(new DocumentListener() {
             public void changedUpdate(DocumentEvent e) { performSearch(); }
             public void removeUpdate(DocumentEvent e) { performSearch(); }
@@ -200,12 +360,14 @@ public class MainWindow {
         leftSidebar.setPreferredSize(new Dimension(180, 0));
         leftSidebar.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
         
-        // Create the clips panel with modern styling
-        clipsPanel = new JPanel();
-        clipsPanel.setLayout(new WrapLayout(FlowLayout.LEFT, 15, 15));
-        clipsPanel.setBackground(new Color(45, 45, 48));
+        // Create the clips grid; only the cards in the viewport are painted,
+        // all through a single renderer
+        clipsModel = new ClipListModel();
+        clipsGrid = new ClipGrid(clipsModel);
+        clipsGrid.setBackground(new Color(45, 45, 48));
+        clipsGrid.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
         
-        clipsScrollPane = new JScrollPane(clipsPanel);
+        clipsScrollPane = new JScrollPane(clipsGrid);
         clipsScrollPane.setBorder(BorderFactory.createEmptyBorder());
         clipsScrollPane.getViewport().setBackground(new Color(45, 45, 48));
         clipsScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
@@ -247,6 +409,7 @@ public class MainWindow {
         topPanel.setBackground(new Color(45, 45, 48));
         topPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
         topPanel.add(searchField, BorderLayout.CENTER);
+        topPanel.add(searchMode, BorderLayout.EAST);
         
         JPanel centerPanel = new JPanel(new BorderLayout());
         centerPanel.add(clipsScrollPane, BorderLayout.CENTER);
@@ -283,10 +446,12 @@ public class MainWindow {
         
         // Build the sidebar
         refreshSidebar();
+        retention.addListener(MainWindow::removeDays);
     }
     
     private static void refreshSidebar() {
         leftSidebar.removeAll();
+        dayButtons.clear();
         
         // Add title to sidebar
         JLabel titleLabel = new JLabel("HISTORY");
@@ -310,15 +475,16 @@ public class MainWindow {
         leftSidebar.add(datesLabel);
         
         // Add date buttons
-        List<LocalDate> dates = new ArrayList<>(dateClipsMap.keySet());
-        dates.sort(Collections.reverseOrder());
+        List<LocalDate> dates = history.dates();
         
         for (LocalDate date : dates) {
             if (!date.equals(LocalDate.now())) {
                 JButton dateButton = createSidebarButton(
                     date.format(DateTimeFormatter.ofPattern("E, MMM d")), date);
+                Component spacer = Box.createRigidArea(new Dimension(0, 5));
                 leftSidebar.add(dateButton);
-                leftSidebar.add(Box.createRigidArea(new Dimension(0, 5)));
+                leftSidebar.add(spacer);
+                dayButtons.put(date, new Component[] {dateButton, spacer});
             }
         }
         
@@ -344,7 +510,10 @@ public class MainWindow {
         button.setHorizontalAlignment(SwingConstants.LEFT);
         
         if (date != null) {
-            button.addActionListener(e -> refreshClips(date));
+            button.addActionListener(e -> {
+                searchService.cancel();
+                refreshClips(date);
+            });
         }
         
         button.addMouseListener(new MouseAdapter() {
@@ -361,39 +530,34 @@ public class MainWindow {
     
     private static void refreshClips(LocalDate date) {
         currentDate = date;
-        clipsPanel.removeAll();
-        
-        List<ClipEntry> clips = dateClipsMap.getOrDefault(date, new ArrayList<>());
-        for (ClipEntry entry : clips) {
-            ClipCard card = new ClipCard(entry);
-            clipsPanel.add(card);
-        }
-        
-        clipsPanel.revalidate();
-        clipsPanel.repaint();
+        clipsModel.setAll(history.snapshot(date));
     }
     
     private static void performSearch() {
-        String query = searchField.getText().toLowerCase();
+        long typedAt = System.nanoTime();
+        String query = searchField.getText();
         if (query.isEmpty()) {
+            searchService.cancel();
             refreshClips(currentDate);
             return;
         }
         
-        clipsPanel.removeAll();
-        
-        // Search across all dates
-        for (LocalDate date : dateClipsMap.keySet()) {
-            for (ClipEntry entry : dateClipsMap.get(date)) {
-                if (entry.text.toLowerCase().contains(query)) {
-                    ClipCard card = new ClipCard(entry);
-                    clipsPanel.add(card);
-                }
-            }
+        // Runs in the background, matches arrive page by page on the EDT
+        SearchService.Mode mode = (SearchService.Mode) searchMode.getSelectedItem();
+        if (mode != SearchService.Mode.REGEX) {
+            // A regex keeps its case, e.g. \d and \D differ
+            query = HistoryManager.fold(query);
         }
-        
-        clipsPanel.revalidate();
-        clipsPanel.repaint();
+        searchService.submit(query, mode, (page, first) -> {
+            if (first) {
+                // Recorded once the grid paints, even if nothing changed
+                Metrics.RESULTS_PROBE.arm(typedAt);
+                clipsGrid.repaint();
+                clipsModel.setAll(page);
+            } else {
+                clipsModel.addAll(page);
+            }
+        });
     }
     
     private static void showSettings() {
@@ -401,7 +565,7 @@ public class MainWindow {
 
         JDialog settingsDialog = new JDialog(frame, "Settings", true);
         settingsDialog.setUndecorated(true);
-        settingsDialog.setSize(300, 200);
+        settingsDialog.setSize(300, 280);
         settingsDialog.setLocationRelativeTo(frame);
         settingsDialog.getContentPane().setBackground(new Color(50, 50, 50));
         
@@ -430,7 +594,7 @@ public class MainWindow {
         dialogPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
         dialogPanel.setOpaque(false);
         
-        JPanel contentPanel = new JPanel(new GridLayout(3, 2, 10, 10));
+        JPanel contentPanel = new JPanel(new GridLayout(4, 2, 10, 10));
         contentPanel.setOpaque(false);
         
         JLabel retentionLabel = new JLabel("Retention Days:");
@@ -440,6 +604,23 @@ public class MainWindow {
         JSpinner retentionSpinner = new JSpinner(new SpinnerNumberModel(retentionDays, 1, 365, 1));
         retentionSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 14));
         
+        JLabel quotaLabel = new JLabel("Size Limit (MB):");
+        quotaLabel.setForeground(Color.WHITE);
+        quotaLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        quotaLabel.setToolTipText("0 for no limit");
+        
+        JSpinner quotaSpinner = new JSpinner(new SpinnerNumberModel(quotaMegabytes, 0, 1 << 20, 50));
+        quotaSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        
+        JLabel prewarmLabel = new JLabel("Pre-warm at Startup:");
+        prewarmLabel.setForeground(Color.WHITE);
+        prewarmLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        prewarmLabel.setToolTipText("Prepares the window in the background so the first hotkey press is instant");
+        
+        JCheckBox prewarmBox = new JCheckBox();
+        prewarmBox.setOpaque(false);
+        prewarmBox.setSelected(prefs.getBoolean("prewarm", false));
+        
         JButton saveButton = new JButton("Save");
         saveButton.setBackground(new Color(70, 130, 180));
         saveButton.setForeground(Color.WHITE);
@@ -454,13 +635,20 @@ public class MainWindow {
         
         contentPanel.add(retentionLabel);
         contentPanel.add(retentionSpinner);
+        contentPanel.add(quotaLabel);
+        contentPanel.add(quotaSpinner);
+        contentPanel.add(prewarmLabel);
+        contentPanel.add(prewarmBox);
         contentPanel.add(saveButton);
         contentPanel.add(cancelButton);
         
         saveButton.addActionListener(e -> {
             retentionDays = (Integer) retentionSpinner.getValue();
             prefs.putInt("retentionDays", retentionDays);
-            cleanupOldFiles();
+            quotaMegabytes = (Integer) quotaSpinner.getValue();
+            prefs.putInt("historyQuotaMb", quotaMegabytes);
+            prefs.putBoolean("prewarm", prewarmBox.isSelected());
+            retention.setPolicy(retentionDays, quotaMegabytes * 1024L * 1024L);
             settingsDialog.dispose();
         });
         
@@ -478,112 +666,101 @@ public class MainWindow {
         settingsDialog.setVisible(true);
     }
     
-    private static void loadHistory() {
-        dateClipsMap.clear();
-        
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDirectory, "*.txt")) {
-            for (Path file : stream) {
-                String filename = file.getFileName().toString();
-                String dateStr = filename.substring(0, filename.lastIndexOf('.'));
-                
-                try {
-                    LocalDate date = LocalDate.parse(dateStr, DateTimeFormatter.ISO_DATE);
-                    List<ClipEntry> clips = new ArrayList<>();
-                    
-                    // Read all lines from the file
-                    List<String> lines = Files.readAllLines(file);
-                    for (String line : lines) {
-                        if (!line.trim().isEmpty()) {
-                            clips.add(new ClipEntry(line, date));
-                        }
-                    }
-                    
-                    dateClipsMap.put(date, clips);
-                } catch (Exception e) {
-                    System.err.println("Error reading file: " + filename + ", " + e.getMessage());
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading data directory: " + e.getMessage());
-        }
-        
-        // Ensure current date is in the map
-        if (!dateClipsMap.containsKey(currentDate)) {
-            dateClipsMap.put(currentDate, new ArrayList<>());
-        }
+    public static void addClip(String text) {
+        addClip(text, 0);
     }
     
-    public static void addClip(String text) {
+    /**
+     * @param noticedAt the {@link System#nanoTime} the clipboard change was
+     *                  noticed at, for the capture latency, or 0
+     */
+    public static void addClip(String text, long noticedAt) {
         if (text == null || text.trim().isEmpty()) return;
+        initStorage();
     
-        // Get today's clips
-        List<ClipEntry> todayClips = dateClipsMap.get(currentDate);
-        if (todayClips == null) {
-            todayClips = new ArrayList<>();
-            dateClipsMap.put(currentDate, todayClips);
+        // Add to beginning of today's clips, skipping an immediate repeat
+        LocalDate today = LocalDate.now();
+        ClipEntry entry = new ClipEntry(blobs.intern(text), today, System.currentTimeMillis());
+        if (history.addEntry(entry) < 0) return;
+        
+        // Hand over to the persistence writer, which also renders the preview
+        if (!writer.submit(entry, noticedAt)) {
+            Log.warn("Persistence writer closed, clip not saved");
         }
         
-        // Avoid duplicates
-        if (!todayClips.isEmpty() && todayClips.get(0).text.equals(text)) return;
-        
-        // Add to beginning of list
-        todayClips.add(0, new ClipEntry(text, LocalDate.now()));
-        
-        // Save to file
-        saveToFile(currentDate, todayClips);
-        
-        // Refresh UI if visible
-        if (isWindowVisible && currentDate.equals(LocalDate.now())) {
-            refreshClips(currentDate);
-        }
+        // Refresh UI if visible; clips are captured off the EDT
+        SwingUtilities.invokeLater(() -> {
+            if (isWindowVisible && currentDate.equals(today)) {
+                refreshClips(currentDate);
+            }
+        });
     }
     
-    private static void saveToFile(LocalDate date, List<ClipEntry> clips) {
-        if (date == null) {
-            date = LocalDate.now();
+    /**
+     * Shows a clip in the detail view. A large clip is loaded from its spill
+     * file in chunks on a background thread.
+     */
+    private static void showDetail(String text) {
+        if (detailLoader != null) {
+            detailLoader.cancel(false);
+            detailLoader = null;
         }
         
-        Path filePath = dataDirectory.resolve(date.format(DateTimeFormatter.ISO_DATE) + ".txt");
+        Path file = RichContent.kind(text) == RichContent.Kind.LARGE_TEXT ? RichContent.file(text) : null;
+        if (file == null || !Files.exists(file)) {
+            detailViewer.setText(RichContent.summary(text));
+            detailViewer.setCaretPosition(0);
+            return;
+        }
         
-        try {
-            // Save only the text content, not the date
-            List<String> textContents = new ArrayList<>();
-            for (ClipEntry entry : clips) {
-                textContents.add(entry.text);
+        detailViewer.setText("");
+        SwingWorker<Void, String> loader = new SwingWorker<Void, String>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                RichContent.readChunks(file, chunk -> {
+                    publish(chunk);
+                    return !isCancelled();
+                });
+                return null;
             }
-            Files.write(filePath, textContents);
-        } catch (IOException e) {
-            System.err.println("Error saving to file: " + e.getMessage());
-        }
+            
+            @Override
+            protected void process(List<String> chunks) {
+                if (isCancelled()) return;
+                boolean first = detailViewer.getDocument().getLength() == 0;
+                for (String chunk : chunks) {
+                    detailViewer.append(chunk);
+                }
+                if (first) {
+                    detailViewer.setCaretPosition(0);
+                }
+            }
+        };
+        detailLoader = loader;
+        loader.execute();
     }
     
-    private static void cleanupOldFiles() {
-        LocalDate cutoff = LocalDate.now().minusDays(retentionDays);
-        
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDirectory, "*.txt")) {
-            for (Path file : stream) {
-                String filename = file.getFileName().toString();
-                String dateStr = filename.substring(0, filename.lastIndexOf('.'));
-                
-                try {
-                    LocalDate fileDate = LocalDate.parse(dateStr, DateTimeFormatter.ISO_DATE);
-                    if (fileDate.isBefore(cutoff)) {
-                        Files.delete(file);
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error processing file: " + filename + ", " + e.getMessage());
+    // Follows the retention service: drops only the deleted days from the views
+    private static void removeDays(List<LocalDate> dates) {
+        boolean showingRemoved = false;
+        for (LocalDate date : dates) {
+            Component[] components = dayButtons.remove(date);
+            if (components != null) {
+                for (Component component : components) {
+                    leftSidebar.remove(component);
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Error cleaning up files: " + e.getMessage());
+            showingRemoved |= date.equals(currentDate);
         }
+        leftSidebar.revalidate();
+        leftSidebar.repaint();
         
-        // Reload history after cleanup
-        loadHistory();
-        refreshSidebar();
-        if (isWindowVisible) {
-            refreshClips(currentDate);
+        if (!searchField.getText().isEmpty()) {
+            performSearch();
+        } else if (showingRemoved) {
+            refreshClips(LocalDate.now());
         }
+        TextArena.logMemoryUsage("after cleanup");
     }
     
     public static boolean isWindowVisible() {
@@ -612,162 +789,209 @@ public class MainWindow {
         }
     }
     
-    // Custom card component for each clip
-    static class ClipCard extends JPanel {
-        private ClipEntry entry;
+    // Model of the clips shown in the grid
+    static class ClipListModel extends AbstractListModel<ClipEntry> {
+        private List<ClipEntry> entries = new ArrayList<>();
         
-        public ClipCard(ClipEntry entry) {
-            this.entry = entry;
-            setLayout(new BorderLayout());
-            setBackground(new Color(60, 60, 60));
-            setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(new Color(80, 80, 80), 1, true),
-                BorderFactory.createEmptyBorder(15, 15, 15, 15)
-            ));
-            setPreferredSize(new Dimension(220, 160)); // Slightly wider to accommodate code
-            
-            // Main content panel
-            JPanel contentPanel = new JPanel(new BorderLayout());
-            contentPanel.setOpaque(false);
-            
-            // Truncated text label with improved font and better HTML handling
-            JLabel textLabel = new JLabel("<html><div style='width:190px; height:110px;'>" + 
-                truncateText(entry.text, 6) + "</div></html>");
-            textLabel.setForeground(Color.WHITE);
-            textLabel.setFont(new Font("Consolas", Font.PLAIN, 12)); // Use monospaced font for code
-            textLabel.setToolTipText(entry.text);
-            textLabel.setVerticalAlignment(SwingConstants.TOP);
-            textLabel.setOpaque(false);
-            
-            // Date label at the bottom
-            JLabel dateLabel = new JLabel(formatDate(entry.date));
-            dateLabel.setForeground(new Color(180, 180, 180));
-            dateLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            dateLabel.setHorizontalAlignment(SwingConstants.RIGHT);
-            dateLabel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
-            
-            contentPanel.add(textLabel, BorderLayout.CENTER);
-            contentPanel.add(dateLabel, BorderLayout.SOUTH);
+        @Override
+        public int getSize() {
+            return entries.size();
+        }
+        
+        @Override
+        public ClipEntry getElementAt(int index) {
+            return entries.get(index);
+        }
+        
+        public void setAll(List<ClipEntry> clips) {
+            int oldSize = entries.size();
+            entries = new ArrayList<>(clips);
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            if (!entries.isEmpty()) {
+                fireIntervalAdded(this, 0, entries.size() - 1);
+            }
+        }
+        
+        public void addAll(List<ClipEntry> clips) {
+            if (clips.isEmpty()) return;
             
-            add(contentPanel, BorderLayout.CENTER);
+            int start = entries.size();
+            entries.addAll(clips);
+            fireIntervalAdded(this, start, entries.size() - 1);
+        }
+    }
+    
+    // Virtualized grid of clip cards
+    static class ClipGrid extends JList<ClipEntry> {
+        private static final int TOOLTIP_CHARS = 2000;
+        
+        private int hoverIndex = -1;
+        
+        public ClipGrid(ClipListModel model) {
+            super(model);
+            setLayoutOrientation(JList.HORIZONTAL_WRAP);
+            setVisibleRowCount(-1);
+            setFixedCellWidth(ClipCard.CELL_WIDTH);
+            setFixedCellHeight(ClipCard.CELL_HEIGHT);
+            setCellRenderer(new ClipCard());
+            setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            ToolTipManager.sharedInstance().registerComponent(this);
             
-            // Add mouse listener to the entire panel
-            addMouseListener(new MouseAdapter() {
+            MouseAdapter mouseHandler = new MouseAdapter() {
                 @Override
                 public void mouseClicked(MouseEvent e) {
-                    copyToClipboard();
-                    detailViewer.setText(entry.text);
+                    int index = indexAt(e.getPoint());
+                    if (index >= 0) {
+                        ClipEntry entry = getModel().getElementAt(index);
+                        copyToClipboard(entry);
+                        showDetail(entry.getText());
+                    }
                 }
                 
                 @Override
-                public void mouseEntered(MouseEvent e) {
-                    setBackground(new Color(70, 70, 70));
-                    setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(new Color(90, 90, 90), 1, true),
-                        BorderFactory.createEmptyBorder(15, 15, 15, 15)
-                    ));
+                public void mouseMoved(MouseEvent e) {
+                    setHoverIndex(indexAt(e.getPoint()));
                 }
                 
                 @Override
                 public void mouseExited(MouseEvent e) {
-                    setBackground(new Color(60, 60, 60));
-                    setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(new Color(80, 80, 80), 1, true),
-                        BorderFactory.createEmptyBorder(15, 15, 15, 15)
-                    ));
+                    setHoverIndex(-1);
                 }
-            });
+            };
+            addMouseListener(mouseHandler);
+            addMouseMotionListener(mouseHandler);
+        }
+        
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (!paintingOffscreen) {
+                Metrics.RESULTS_PROBE.painted();
+            }
+        }
+        
+        @Override
+        public String getToolTipText(MouseEvent e) {
+            int index = indexAt(e.getPoint());
+            if (index < 0) return null;
             
-            // Also add the mouse listener to the text label to ensure it's clickable
-            textLabel.addMouseListener(new MouseAdapter() {
-                @Override
-                public void mouseClicked(MouseEvent e) {
-                    copyToClipboard();
-                    detailViewer.setText(entry.text);
-                }
-                
-                @Override
-                public void mouseEntered(MouseEvent e) {
-                    setBackground(new Color(70, 70, 70));
-                    setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(new Color(90, 90, 90), 1, true),
-                        BorderFactory.createEmptyBorder(15, 15, 15, 15)
-                    ));
-                }
-                
-                @Override
-                public void mouseExited(MouseEvent e) {
-                    setBackground(new Color(60, 60, 60));
-                    setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(new Color(80, 80, 80), 1, true),
-                        BorderFactory.createEmptyBorder(15, 15, 15, 15)
-                    ));
-                }
-            });
+            // Only the head of a long clip, the detail view shows all of it
+            String text = RichContent.summary(getModel().getElementAt(index).getText());
+            return text.length() > TOOLTIP_CHARS ? text.substring(0, TOOLTIP_CHARS) + "..." : text;
         }
         
-        private String truncateText(String text, int maxLines) {
-            // Remove extra whitespace at the beginning of lines (common in code)
-            text = text.replaceAll("(?m)^\\s+", "");
+        // Index of the card under the point, -1 for empty space
+        private int indexAt(Point point) {
+            int index = locationToIndex(point);
+            if (index < 0) return -1;
             
-            // First, handle line breaks
-            String[] lines = text.split("\n");
-            if (lines.length <= maxLines && text.length() < 150) {
-                return text.replace("\n", "<br>").replace(" ", "&nbsp;");
-            }
+            Rectangle bounds = getCellBounds(index, index);
+            return bounds != null && bounds.contains(point) ? index : -1;
+        }
+        
+        private void setHoverIndex(int index) {
+            if (index == hoverIndex) return;
             
-            // If too many lines or too long, truncate and add ellipsis
-            StringBuilder truncated = new StringBuilder();
-            int totalChars = 0;
-            int linesAdded = 0;
+            repaintCell(hoverIndex);
+            hoverIndex = index;
+            repaintCell(hoverIndex);
+        }
+        
+        private void repaintCell(int index) {
+            if (index < 0 || index >= getModel().getSize()) return;
             
-            for (int i = 0; i < lines.length && linesAdded < maxLines; i++) {
-                String line = lines[i].trim();
-                if (line.isEmpty()) continue;
-                
-                if (totalChars + line.length() > 150) {
-                    // If we're getting too long, truncate this line
-                    int remaining = 150 - totalChars - 3; // Reserve 3 chars for ellipsis
-                    if (remaining > 10) { // Only truncate if we have meaningful content
-                        truncated.append(escapeHtml(line.substring(0, remaining))).append("...");
-                        linesAdded++;
-                    }
-                    break;
-                }
-                
-                if (linesAdded > 0) {
-                    truncated.append("<br>");
-                }
-                
-                truncated.append(escapeHtml(line));
-                totalChars += line.length();
-                linesAdded++;
+            Rectangle bounds = getCellBounds(index, index);
+            if (bounds != null) {
+                repaint(bounds);
             }
+        }
+        
+        private void copyToClipboard(ClipEntry entry) {
+            Toolkit.getDefaultToolkit()
+                .getSystemClipboard()
+                .setContents(RichContent.transferable(entry.getText()), null);
+        }
+    }
+    
+    // Card renderer for each clip in the grid
+    static class ClipCard extends JPanel implements ListCellRenderer<ClipEntry> {
+        static final int CELL_WIDTH = 235;
+        static final int CELL_HEIGHT = 175;
+        
+        private static final Color BACKGROUND = new Color(60, 60, 60);
+        private static final Color HOVER_BACKGROUND = new Color(70, 70, 70);
+        private static final Border BORDER = BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(80, 80, 80), 1, true),
+            BorderFactory.createEmptyBorder(15, 15, 15, 15)
+        );
+        private static final Border HOVER_BORDER = BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(90, 90, 90), 1, true),
+            BorderFactory.createEmptyBorder(15, 15, 15, 15)
+        );
+        
+        private final ThumbnailCache thumbnails = new ThumbnailCache();
+        private final JPanel card;
+        private final JLabel textLabel;
+        private final JLabel dateLabel;
+        
+        public ClipCard() {
+            // The outer panel is transparent and leaves the gap between cards
+            setLayout(new BorderLayout());
+            setOpaque(false);
+            setBorder(BorderFactory.createEmptyBorder(7, 7, 8, 8));
             
-            if (lines.length > maxLines || text.length() > 150) {
-                truncated.append("<br>...");
-            }
+            card = new JPanel(new BorderLayout());
+            card.setBackground(BACKGROUND);
+            card.setBorder(BORDER);
             
-            return truncated.toString();
+            // Truncated text label with improved font and better HTML handling
+            textLabel = new JLabel();
+            textLabel.setForeground(Color.WHITE);
+            textLabel.setFont(new Font("Consolas", Font.PLAIN, 12)); // Use monospaced font for code
+            textLabel.setVerticalAlignment(SwingConstants.TOP);
+            textLabel.setOpaque(false);
+            
+            // Date label at the bottom
+            dateLabel = new JLabel();
+            dateLabel.setForeground(new Color(180, 180, 180));
+            dateLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+            dateLabel.setHorizontalAlignment(SwingConstants.RIGHT);
+            dateLabel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+            
+            card.add(textLabel, BorderLayout.CENTER);
+            card.add(dateLabel, BorderLayout.SOUTH);
+            add(card, BorderLayout.CENTER);
         }
         
-        // Helper method to escape HTML and preserve spaces
-        private String escapeHtml(String text) {
-            return text.replace("&", "&amp;")
-                    .replace("<", "&lt;")
-                    .replace(">", "&gt;")
-                    .replace(" ", "&nbsp;");
+        @Override
+        public Component getListCellRendererComponent(JList<? extends ClipEntry> list, ClipEntry entry,
+                                                      int index, boolean isSelected, boolean cellHasFocus) {
+            boolean hover = list instanceof ClipGrid && ((ClipGrid) list).hoverIndex == index;
+            card.setBackground(hover ? HOVER_BACKGROUND : BACKGROUND);
+            card.setBorder(hover ? HOVER_BORDER : BORDER);
+            
+            // Image clips show their thumbnail once it has been scaled
+            String preview = entry.getPreview();
+            Path image = ClipPreview.isImage(preview) ? RichContent.file(entry.getText()) : null;
+            BufferedImage thumbnail = image != null ? thumbnails.get(image, list::repaint) : null;
+            if (thumbnail != null) {
+                textLabel.setIcon(new ImageIcon(thumbnail));
+                textLabel.setText(null);
+            } else {
+                textLabel.setIcon(null);
+                textLabel.setText("<html><div style='width:190px; height:110px;'>" + 
+                    preview + "</div></html>");
+            }
+            dateLabel.setText(formatDate(entry.date));
+            
+            return this;
         }
         
         private String formatDate(LocalDate date) {
             return date.format(DateTimeFormatter.ofPattern("MMM d, yyyy"));
         }
-        
-        private void copyToClipboard() {
-            Toolkit.getDefaultToolkit()
-                .getSystemClipboard()
-                .setContents(new StringSelection(entry.text), null);
-        }
     }
     
     // Custom scroll bar UI
@@ -815,73 +1039,6 @@ public class MainWindow {
         }
     }
     
-    // Custom layout manager for wrapping grid
-    static class WrapLayout extends FlowLayout {
-        public WrapLayout() {
-            super();
-        }
-        
-        public WrapLayout(int align) {
-            super(align);
-        }
-        
-        public WrapLayout(int align, int hgap, int vgap) {
-            super(align, hgap, vgap);
-        }
-        
-        @Override
-        public Dimension preferredLayoutSize(Container target) {
-            return layoutSize(target, true);
-        }
-        
-        @Override
-        public Dimension minimumLayoutSize(Container target) {
-            return layoutSize(target, false);
-        }
-        
-        private Dimension layoutSize(Container target, boolean preferred) {
-            synchronized (target.getTreeLock()) {
-                int targetWidth = target.getSize().width;
-                if (targetWidth == 0) {
-                    targetWidth = Integer.MAX_VALUE;
-                }
-                
-                int hgap = getHgap();
-                int vgap = getVgap();
-                Insets insets = target.getInsets();
-                int maxWidth = targetWidth - (insets.left + insets.right + hgap * 2);
-                
-                int x = 0;
-                int y = insets.top + vgap;
-                int rowHeight = 0;
-                int maxX = 0;
-                
-                for (Component comp : target.getComponents()) {
-                    if (comp.isVisible()) {
-                        Dimension dim = preferred ? comp.getPreferredSize() : comp.getMinimumSize();
-                        
-                        if (x == 0 || x + dim.width <= maxWidth) {
-                            if (x > 0) {
-                                x += hgap;
-                            }
-                            x += dim.width;
-                            rowHeight = Math.max(rowHeight, dim.height);
-                        } else {
-                            x = dim.width;
-                            y += vgap + rowHeight;
-                            rowHeight = dim.height;
-                        }
-                        maxX = Math.max(maxX, x);
-                    }
-                }
-                
-                y += rowHeight;
-                
-                return new Dimension(maxX + insets.right, y + insets.bottom);
-            }
-        }
-    }
-
     static {
         // Set the focus traversal policy to ensure components can receive focus
         KeyboardFocusManager.setCurrentKeyboardFocusManager(new DefaultKeyboardFocusManager() {
@@ -902,12 +1059,78 @@ public class MainWindow {
     }
 
     public static class ClipEntry {
-        public final String text;
         public final LocalDate date;
+        public final long timestamp;
+        private final String text;
+        private final ByteBuffer utf8;
+        private final DaySegment segment;
+        private final int index;
+        private volatile String preview;
+        private volatile long charMask;
+        private volatile boolean hasCharMask;
 
-        public ClipEntry(String text, LocalDate date) {
-            this.text = text;
+        // With the text arena enabled only the UTF-8 bytes are kept, off-heap
+        public ClipEntry(String text, LocalDate date, long timestamp) {
+            TextArena arena = textArena;
+            this.text = arena == null ? text : null;
+            this.utf8 = arena != null ? arena.store(text) : null;
             this.date = date;
+            this.timestamp = timestamp;
+            this.segment = null;
+            this.index = -1;
+        }
+
+        // Entry of a compacted day, decoded from the mapped segment on demand
+        public ClipEntry(DaySegment segment, int index, LocalDate date) {
+            this.text = null;
+            this.utf8 = null;
+            this.date = date;
+            this.timestamp = segment.timestamp(index);
+            this.segment = segment;
+            this.index = index;
+        }
+
+        public String getText() {
+            if (text != null) return text;
+            return utf8 != null ? TextArena.decode(utf8) : segment.text(index);
+        }
+
+        /**
+         * Returns the fuzzy-search character mask of the shown text, computed
+         * once so later searches can rule the clip out without its text.
+         */
+        public long charMask() {
+            if (!hasCharMask) {
+                charMask = FuzzyMatcher.mask(HistoryManager.fold(RichContent.summary(getText())));
+                hasCharMask = true;
+            }
+            return charMask;
+        }
+
+        /**
+         * Returns the card preview, taken from the segment when it was stored
+         * with the current preview format, otherwise rendered once and kept.
+         */
+        public String getPreview() {
+            String current = preview;
+            if (current == null) {
+                if (segment != null) {
+                    current = segment.preview(index);
+                }
+                if (current == null) {
+                    current = ClipPreview.render(getText());
+                }
+                preview = current;
+            }
+            return current;
+        }
+
+        boolean hasPreview() {
+            return preview != null;
+        }
+
+        void setPreview(String preview) {
+            this.preview = preview;
         }
     }
 }
\ No newline at end of file
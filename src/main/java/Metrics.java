@@ -0,0 +1,207 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and counters of the capture, persistence and search
+ * paths, published through JMX by {@link #register()}.
+ *
+ * Latencies that end when something is on screen are measured with a
+ * {@link PaintProbe}: it is armed with the start time and records once the
+ * component is next painted.
+ */
+public class Metrics {
+    public static final LatencyHistogram CAPTURE_TO_PERSISTED = new LatencyHistogram();
+    public static final LatencyHistogram HOTKEY_TO_VISIBLE = new LatencyHistogram();
+    public static final LatencyHistogram KEYSTROKE_TO_RESULTS = new LatencyHistogram();
+    public static final LatencyHistogram HISTORY_LOAD = new LatencyHistogram();
+    public static final LatencyHistogram FIRST_VISIBLE = new LatencyHistogram();
+
+    public static final AtomicLong CLIPBOARD_EVENTS = new AtomicLong();
+    public static final AtomicLong COALESCED_EVENTS = new AtomicLong();
+    public static final AtomicLong CLIPS_CAPTURED = new AtomicLong();
+    public static final AtomicLong BYTES_STORED = new AtomicLong();
+    public static final AtomicLong CAPTURE_RETRIES = new AtomicLong();
+    public static final AtomicLong CAPTURE_DROPS = new AtomicLong();
+    public static final AtomicLong EDT_STALLS = new AtomicLong();
+    public static final AtomicLong OFF_EDT_ACCESSES = new AtomicLong();
+    public static final AtomicLong STALE_PAINT_SAMPLES = new AtomicLong();
+
+    public static final PaintProbe HOTKEY_PROBE = new PaintProbe(HOTKEY_TO_VISIBLE);
+    public static final PaintProbe RESULTS_PROBE = new PaintProbe(KEYSTROKE_TO_RESULTS);
+    // Armed once, by a show request, so a slow cold start is recorded in full
+    public static final PaintProbe FIRST_VISIBLE_PROBE = new PaintProbe(FIRST_VISIBLE, Long.MAX_VALUE);
+
+    private static final String NAME = "clipboardapp:type=Metrics";
+
+    /**
+     * Registers the MBean with the platform MBean server.
+     */
+    public static void register() {
+        try {
+            ObjectName name = new ObjectName(NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+            }
+        } catch (JMException e) {
+            Log.warn("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    public static String summary() {
+        return "capture->persisted " + CAPTURE_TO_PERSISTED.summary()
+            + "; hotkey->visible " + HOTKEY_TO_VISIBLE.summary()
+            + "; keystroke->results " + KEYSTROKE_TO_RESULTS.summary()
+            + "; history load " + HISTORY_LOAD.summary()
+            + "; first visible " + FIRST_VISIBLE.summary()
+            + "; " + CLIPS_CAPTURED.get() + " clips, " + BYTES_STORED.get() / 1024 + " KB stored";
+    }
+
+    /**
+     * Measures up to the next paint. Arming again before that paint moves
+     * the start. A start older than the probe's limit, 10 s by default, is counted in
+     * {@link #STALE_PAINT_SAMPLES} instead of recorded, e.g. when the window
+     * was already showing and did not repaint.
+     */
+    public static class PaintProbe {
+        private static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+        private final LatencyHistogram histogram;
+        private final long staleNanos;
+        private final AtomicLong armedAt = new AtomicLong();
+        private final AtomicBoolean armedOnce = new AtomicBoolean();
+
+        PaintProbe(LatencyHistogram histogram) {
+            this(histogram, STALE_NANOS);
+        }
+
+        PaintProbe(LatencyHistogram histogram, long staleNanos) {
+            this.histogram = histogram;
+            this.staleNanos = staleNanos;
+        }
+
+        public void arm(long startNanos) {
+            armedAt.set(startNanos);
+        }
+
+        /** Arms the probe only the first time, for a once per run latency. */
+        public void armFirst(long startNanos) {
+            if (armedOnce.compareAndSet(false, true)) {
+                arm(startNanos);
+            }
+        }
+
+        /**
+         * Called from paint code on the EDT; cheap when not armed.
+         *
+         * @return whether a latency was recorded
+         */
+        public boolean painted() {
+            if (armedAt.get() == 0) return false;
+
+            long start = armedAt.getAndSet(0);
+            long elapsed = System.nanoTime() - start;
+            if (start == 0) return false;
+            if (elapsed >= staleNanos) {
+                STALE_PAINT_SAMPLES.incrementAndGet();
+                return false;
+            }
+            histogram.record(elapsed);
+            return true;
+        }
+    }
+
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public LatencyHistogram.Summary getCaptureToPersisted() {
+            return CAPTURE_TO_PERSISTED.summary();
+        }
+
+        @Override
+        public LatencyHistogram.Summary getHotkeyToVisible() {
+            return HOTKEY_TO_VISIBLE.summary();
+        }
+
+        @Override
+        public LatencyHistogram.Summary getKeystrokeToResults() {
+            return KEYSTROKE_TO_RESULTS.summary();
+        }
+
+        @Override
+        public LatencyHistogram.Summary getHistoryLoad() {
+            return HISTORY_LOAD.summary();
+        }
+
+        @Override
+        public LatencyHistogram.Summary getFirstVisible() {
+            return FIRST_VISIBLE.summary();
+        }
+
+        @Override
+        public long getClipboardEvents() {
+            return CLIPBOARD_EVENTS.get();
+        }
+
+        @Override
+        public long getCoalescedEvents() {
+            return COALESCED_EVENTS.get();
+        }
+
+        @Override
+        public long getClipsCaptured() {
+            return CLIPS_CAPTURED.get();
+        }
+
+        @Override
+        public long getBytesStored() {
+            return BYTES_STORED.get();
+        }
+
+        @Override
+        public long getCaptureRetries() {
+            return CAPTURE_RETRIES.get();
+        }
+
+        @Override
+        public long getCaptureDrops() {
+            return CAPTURE_DROPS.get();
+        }
+
+        @Override
+        public long getEdtStalls() {
+            return EDT_STALLS.get();
+        }
+
+        @Override
+        public long getOffEdtAccesses() {
+            return OFF_EDT_ACCESSES.get();
+        }
+
+        @Override
+        public long getStalePaintSamples() {
+            return STALE_PAINT_SAMPLES.get();
+        }
+
+        @Override
+        public String getLogLevel() {
+            return Log.level().name();
+        }
+
+        @Override
+        public void setLogLevel(String level) {
+            Log.setLevel(Log.parse(level, Log.level()));
+        }
+
+        @Override
+        public void resetLatencies() {
+            CAPTURE_TO_PERSISTED.reset();
+            HOTKEY_TO_VISIBLE.reset();
+            KEYSTROKE_TO_RESULTS.reset();
+            HISTORY_LOAD.reset();
+            FIRST_VISIBLE.reset();
+        }
+    }
+}
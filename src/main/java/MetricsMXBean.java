@@ -0,0 +1,47 @@
+/**
+ * Management interface of {@link Metrics}, registered as
+ * {@code clipboardapp:type=Metrics}. Latencies are in milliseconds.
+ */
+public interface MetricsMXBean {
+    /** Clipboard change notification to clip written to the journal. */
+    LatencyHistogram.Summary getCaptureToPersisted();
+
+    /** Hotkey press to the window painted. */
+    LatencyHistogram.Summary getHotkeyToVisible();
+
+    /** Search keystroke to the first page of results painted. */
+    LatencyHistogram.Summary getKeystrokeToResults();
+
+    /** Loading the clips of one day. */
+    LatencyHistogram.Summary getHistoryLoad();
+
+    /** First show request of the run to the window painted. */
+    LatencyHistogram.Summary getFirstVisible();
+
+    long getClipboardEvents();
+
+    long getCoalescedEvents();
+
+    long getClipsCaptured();
+
+    long getBytesStored();
+
+    long getCaptureRetries();
+
+    long getCaptureDrops();
+
+    /** Event dispatches that ran past the EDT watchdog threshold. */
+    long getEdtStalls();
+
+    /** Swing components changed by a thread other than the EDT. */
+    long getOffEdtAccesses();
+
+    /** Paint latencies not recorded because no paint came within 10 s. */
+    long getStalePaintSamples();
+
+    String getLogLevel();
+
+    void setLogLevel(String level);
+
+    void resetLatencies();
+}
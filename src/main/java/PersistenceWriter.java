@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated writer stage between clip capture and the journal.
+ *
+ * Captured clips are handed over through a bounded queue so a slow disk
+ * never blocks the clipboard notification thread. The writer thread waits
+ * up to the flush interval after the first pending clip to collect a burst,
+ * then writes the whole batch with one journal append and, depending on the
+ * durability mode, one fsync (group commit). Clips of a failed write stay
+ * at the front of the next batch. Card previews of the batch are rendered
+ * on the same thread, so the EDT normally finds them ready.
+ */
+public class PersistenceWriter {
+    public enum Durability {
+        /** Leave flushing to the operating system. */
+        OS,
+        /** Fsync the journal after every batch. */
+        FSYNC
+    }
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+
+    private final ClipJournal journal;
+    private final long flushIntervalMillis;
+    private final Durability durability;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    // Held while a clip is accepted and while closing, so no clip is
+    // accepted after the writer may have seen the queue drained
+    private final Object acceptLock = new Object();
+    private volatile boolean closed = false;
+
+    private static final Pending STOP = new Pending(null, 0);
+
+    private static class Pending {
+        final MainWindow.ClipEntry entry;
+        // When the clipboard change was noticed, 0 if unknown
+        final long noticedAt;
+
+        Pending(MainWindow.ClipEntry entry, long noticedAt) {
+            this.entry = entry;
+            this.noticedAt = noticedAt;
+        }
+    }
+
+    public PersistenceWriter(ClipJournal journal, long flushIntervalMillis, Durability durability) {
+        this.journal = journal;
+        this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+        this.durability = durability;
+        this.thread = new Thread(this::run, "clip-persistence-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a clip for writing. Blocks only when the queue is full, i.e.
+     * when the disk has fallen far behind capture.
+     *
+     * @param noticedAt the {@link System#nanoTime} the clipboard change was
+     *                  noticed at, for the capture latency, or 0
+     * @return false if the writer has already been closed
+     */
+    public boolean submit(MainWindow.ClipEntry entry, long noticedAt) {
+        synchronized (acceptLock) {
+            if (closed) return false;
+
+            try {
+                queue.put(new Pending(entry, noticedAt));
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting clips, waits for every accepted clip to be written and
+     * synced, then closes the journal.
+     */
+    public void close(long timeoutMillis) {
+        synchronized (acceptLock) {
+            closed = true;
+        }
+        // Wake the writer without interrupting it: an interrupt during
+        // channel I/O would close the journal under its feet
+        queue.offer(STOP);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            Log.warn("Persistence writer did not drain within " + timeoutMillis + " ms");
+        }
+    }
+
+    private void run() {
+        // Clips not written yet, including those of a failed write, which
+        // are retried with the next batch
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null && first != STOP) {
+                    batch.add(first);
+                }
+                if (batch.isEmpty()) continue;
+
+                // Give a burst the flush interval to arrive
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < MAX_BATCH && !closed) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null || next == STOP) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+                queue.drainTo(batch);
+                batch.remove(STOP);
+            }
+
+            write(batch);
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+            if (!batch.isEmpty()) {
+                Log.error("Lost " + batch.size() + " clips that could not be written to the journal");
+            }
+        }
+
+        try {
+            journal.force();
+        } catch (IOException e) {
+            Log.error("Error syncing journal: " + e.getMessage());
+        }
+        journal.close();
+    }
+
+    // Writes a batch and removes the clips that made it into the journal
+    private void write(List<Pending> batch) {
+        List<Pending> written = batch.subList(0, writeBatch(batch, durability == Durability.FSYNC));
+        for (Pending pending : written) {
+            if (pending.noticedAt != 0) {
+                Metrics.CAPTURE_TO_PERSISTED.recordSince(pending.noticedAt);
+            }
+        }
+        renderPreviews(written);
+        written.clear();
+    }
+
+    private void renderPreviews(List<Pending> batch) {
+        for (Pending pending : batch) {
+            if (!pending.entry.hasPreview()) {
+                pending.entry.setPreview(ClipPreview.render(pending.entry.getText()));
+            }
+        }
+    }
+
+    /**
+     * Appends a batch to the journal.
+     *
+     * @return how many clips from the start of the batch were appended; the
+     *         rest are to be written again
+     */
+    private int writeBatch(List<Pending> batch, boolean sync) {
+        int start = 0;
+        try {
+            // Group consecutive records of the same day into one append
+            while (start < batch.size()) {
+                LocalDate date = batch.get(start).entry.date;
+                List<ClipJournal.Record> records = new ArrayList<>();
+                int end = start;
+                while (end < batch.size() && batch.get(end).entry.date.equals(date)) {
+                    MainWindow.ClipEntry entry = batch.get(end).entry;
+                    records.add(new ClipJournal.Record(entry.timestamp, entry.getText()));
+                    end++;
+                }
+                journal.append(date, records);
+                start = end;
+            }
+        } catch (IOException e) {
+            Log.error("Error writing " + (batch.size() - start) + " clips to journal, retrying: "
+                + e.getMessage());
+            return start;
+        }
+
+        if (sync) {
+            try {
+                journal.force();
+            } catch (IOException e) {
+                // Appended all the same; the next sync covers them
+                Log.error("Error syncing journal: " + e.getMessage());
+            }
+        }
+        return start;
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Enforces the history retention in the background.
+ *
+ * Runs shortly after startup, then every hour, and whenever the policy
+ * changes. Days older than the retention period are deleted; with a size
+ * quota, the oldest remaining days are deleted too until the history fits.
+ * Today is always kept. The size freed by the deleted days counts their
+ * files, the blobs only they refer to and the rich content written on them.
+ *
+ * Only the expired days are dropped from the history, and listeners are
+ * told which ones on the EDT, so views can update without reloading.
+ */
+public class RetentionService {
+    private static final long FIRST_RUN_DELAY_SECONDS = 30;
+    private static final long PERIOD_MINUTES = 60;
+
+    public interface Listener {
+        /** Called on the EDT with the deleted days, oldest first. */
+        void daysRemoved(List<LocalDate> dates);
+    }
+
+    private final ClipJournal journal;
+    private final HistoryManager history;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "clip-retention");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private volatile int retentionDays;
+    private volatile long quotaBytes;
+
+    /**
+     * @param quotaBytes the most bytes the history may take, or 0 for no limit
+     */
+    public RetentionService(ClipJournal journal, HistoryManager history, int retentionDays, long quotaBytes) {
+        this.journal = journal;
+        this.history = history;
+        this.retentionDays = retentionDays;
+        this.quotaBytes = quotaBytes;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::enforce,
+            FIRST_RUN_DELAY_SECONDS, TimeUnit.MINUTES.toSeconds(PERIOD_MINUTES), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Changes the policy and applies it right away.
+     */
+    public void setPolicy(int retentionDays, long quotaBytes) {
+        this.retentionDays = retentionDays;
+        this.quotaBytes = quotaBytes;
+        executor.execute(this::enforce);
+    }
+
+    void enforce() {
+        try {
+            LocalDate today = LocalDate.now();
+            LocalDate cutoff = today.minusDays(retentionDays);
+            List<LocalDate> expired = new ArrayList<>();
+            List<LocalDate> kept = new ArrayList<>();
+            for (LocalDate date : journal.listDays()) {
+                if (date.isBefore(cutoff)) {
+                    expired.add(date);
+                } else if (date.isBefore(today)) {
+                    kept.add(date);
+                }
+            }
+
+            long quota = quotaBytes;
+            NavigableMap<LocalDate, Long> richBytes = RichContent.bytesByDay();
+            if (quota > 0) {
+                long stored = journal.storedBytes() + sum(richBytes.tailMap(cutoff, true));
+                long used = stored - journal.reclaimableBytes(expired);
+                long rich = 0;
+                Iterator<LocalDate> oldest = kept.iterator();
+                while (used > quota && oldest.hasNext()) {
+                    LocalDate date = oldest.next();
+                    expired.add(date);
+                    rich += richBytes.getOrDefault(date, 0L);
+                    // Measured for all the chosen days at once, since a blob
+                    // they share is freed only with the last of them
+                    used = stored - journal.reclaimableBytes(expired) - rich;
+                }
+            }
+            if (expired.isEmpty()) return;
+
+            LocalDate newest = expired.get(expired.size() - 1);
+            List<LocalDate> removed = new ArrayList<>();
+            for (LocalDate date : expired) {
+                try {
+                    journal.deleteDay(date);
+                    history.removeDay(date);
+                    removed.add(date);
+                } catch (IOException e) {
+                    Log.error("Error deleting history for " + date + ", " + e.getMessage());
+                }
+            }
+            LocalDate richCutoff = newest.isBefore(cutoff) ? cutoff : newest.plusDays(1);
+            RichContent.deleteOlderThan(richCutoff.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+
+            // Drop clip texts no remaining day refers to
+            journal.scheduleGarbageCollection();
+            Log.info("Retention removed " + removed.size() + " day(s) up to " + newest);
+
+            if (!removed.isEmpty()) {
+                SwingUtilities.invokeLater(() -> {
+                    for (Listener listener : listeners) {
+                        listener.daysRemoved(removed);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.error("Error enforcing retention: " + e);
+        }
+    }
+
+    private static long sum(Map<LocalDate, Long> bytes) {
+        long total = 0;
+        for (long value : bytes.values()) {
+            total += value;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,536 @@
+import java.awt.Image;
+import java.awt.datatransfer.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+
+/**
+ * Capture of clipboard content other than plain text: images, HTML, file
+ * lists and texts above the large-clip threshold.
+ *
+ * A rich clip is kept in the history as a descriptor text, so it is
+ * journaled, stored and searched like any other clip:
+ * <pre>
+ *   "\0rich:" kind ":" payload file name [":" length] "\n" summary
+ * </pre>
+ * The summary is what is shown and searched: the image size, the plain text
+ * of the HTML, the file paths, or the head of a large text. A text above
+ * the threshold, plain or that of HTML, is cut to its head and its full
+ * length is recorded in the header. Images, HTML and large texts are
+ * streamed to files in {@code ~/.clipboardapp/rich} named by a hash of
+ * their content, so the heap only holds the descriptor. Large texts are
+ * read through {@link DataFlavor#getReaderForText} and loaded back in
+ * chunks. Copying the clip again puts the original content back on the
+ * clipboard.
+ *
+ * Payload files are touched whenever they are captured again and deleted
+ * once they are older than the retention period.
+ */
+public class RichContent {
+    public enum Kind { IMAGE, HTML, FILES, LARGE_TEXT }
+
+    // Characters of a large text kept as its summary
+    private static final int HEAD_CHARS = 4096;
+    private static final int CHUNK_CHARS = 64 * 1024;
+
+    private static final String MARKER = "\u0000rich:";
+
+    private static final Path DIRECTORY =
+        Paths.get(System.getProperty("user.home"), ".clipboardapp", "rich");
+
+    // Content hash and extension, as named by spill()
+    private static final Pattern PAYLOAD_NAME = Pattern.compile("[0-9a-f]{1,16}\\.[a-z]{1,8}");
+
+    private static final DataFlavor HTML_FLAVOR = DataFlavor.allHtmlFlavor;
+
+    public static boolean isRich(String text) {
+        return text.startsWith(MARKER);
+    }
+
+    /**
+     * Returns the kind of a rich clip, or null for plain text.
+     */
+    public static Kind kind(String text) {
+        String[] header = header(text);
+        if (header == null) return null;
+        try {
+            return Kind.valueOf(header[0]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the payload file of a rich clip, or null if it has none. Only
+     * a name {@link #spill} gives is accepted, since a copied text can look
+     * like a descriptor too and must not reach outside the directory.
+     */
+    public static Path file(String text) {
+        String[] header = header(text);
+        if (header == null || header.length < 2 || !PAYLOAD_NAME.matcher(header[1]).matches()) return null;
+        Path file = DIRECTORY.resolve(header[1]).normalize();
+        return file.startsWith(DIRECTORY.normalize()) ? file : null;
+    }
+
+    /**
+     * Returns the length in characters of the text a clip stands for: the
+     * full length of a text cut to its head, otherwise that of its summary.
+     */
+    public static long length(String text) {
+        String[] header = header(text);
+        if (header != null && header.length > 2) {
+            try {
+                return Long.parseLong(header[2]);
+            } catch (NumberFormatException e) {
+                // Fall back to the summary
+            }
+        }
+        return summary(text).length();
+    }
+
+    /**
+     * Smallest sensible large-clip threshold, the head kept of a large text.
+     */
+    public static int minimumLargeChars() {
+        return HEAD_CHARS;
+    }
+
+    // Kind, file name and optional length of a rich clip
+    private static String[] header(String text) {
+        if (!isRich(text)) return null;
+        int end = text.indexOf('\n');
+        return text.substring(MARKER.length(), end >= 0 ? end : text.length()).split(":", 3);
+    }
+
+    /**
+     * Returns the text to show and search for a clip: the summary of a rich
+     * clip, the text itself otherwise.
+     */
+    public static String summary(String text) {
+        if (!isRich(text)) return text;
+        int end = text.indexOf('\n');
+        return end >= 0 ? text.substring(end + 1) : "";
+    }
+
+    /**
+     * Reads the clipboard, preferring file lists, then images, then HTML,
+     * then plain text. A text longer than {@code largeChars} is spilled.
+     *
+     * @return the clip text or descriptor, or null if nothing supported is
+     *         on the clipboard
+     */
+    public static String read(Clipboard clipboard, int largeChars) throws IOException, UnsupportedFlavorException {
+        if (clipboard.isDataFlavorAvailable(DataFlavor.javaFileListFlavor)) {
+            StringBuilder paths = new StringBuilder();
+            for (Object file : (List<?>) clipboard.getData(DataFlavor.javaFileListFlavor)) {
+                if (paths.length() > 0) paths.append('\n');
+                paths.append(((File) file).getAbsolutePath());
+            }
+            return descriptor(Kind.FILES, "", paths.toString());
+        }
+
+        if (clipboard.isDataFlavorAvailable(DataFlavor.imageFlavor)) {
+            Image image = (Image) clipboard.getData(DataFlavor.imageFlavor);
+            BufferedImage buffered = toBufferedImage(image);
+            if (buffered == null) return null;
+            String name = spill("png", out -> ImageIO.write(buffered, "png", out));
+            return descriptor(Kind.IMAGE, name, "Image " + buffered.getWidth() + " × " + buffered.getHeight());
+        }
+
+        boolean hasText = clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor);
+        if (clipboard.isDataFlavorAvailable(HTML_FLAVOR)) {
+            return readHtml(clipboard, hasText, largeChars);
+        }
+
+        return hasText ? readText(clipboard, largeChars) : null;
+    }
+
+    /**
+     * Streams HTML to a payload file. The summary is the plain text, or the
+     * tags stripped from the HTML if there is none, cut to its head once it
+     * is longer than {@code largeChars}.
+     */
+    private static String readHtml(Clipboard clipboard, boolean hasText, int largeChars)
+            throws IOException, UnsupportedFlavorException {
+        Transferable contents = clipboard.getContents(null);
+        // Without a plain text flavor the summary is made from the HTML head
+        StringBuilder head = new StringBuilder();
+        long[] htmlLength = { 0 };
+        String name;
+        try (Reader reader = openReader(clipboard, contents, "text/html", HTML_FLAVOR)) {
+            name = spill("html", out -> {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                char[] buffer = new char[8192];
+                int n;
+                while ((n = reader.read(buffer)) > 0) {
+                    if (!hasText && head.length() <= largeChars) {
+                        head.append(buffer, 0, Math.min(n, largeChars + 1 - head.length()));
+                    }
+                    writer.write(buffer, 0, n);
+                    htmlLength[0] += n;
+                }
+                writer.flush();
+            });
+        }
+
+        if (!hasText) {
+            String plain = stripTags(head.toString());
+            if (htmlLength[0] > largeChars) {
+                // The length of the plain text is not known, that of the HTML stands in
+                return descriptor(Kind.HTML, name + ":" + htmlLength[0], truncate(plain));
+            }
+            return descriptor(Kind.HTML, name, plain);
+        }
+
+        try (Reader reader = openReader(clipboard, contents, "text/plain", DataFlavor.stringFlavor)) {
+            StringBuilder plain = new StringBuilder();
+            long length = 0;
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                if (plain.length() <= largeChars) {
+                    plain.append(buffer, 0, Math.min(n, largeChars + 1 - plain.length()));
+                }
+                length += n;
+            }
+            if (length > largeChars) {
+                return descriptor(Kind.HTML, name + ":" + length, truncate(plain.toString()));
+            }
+            return descriptor(Kind.HTML, name, plain.toString());
+        }
+    }
+
+    private static String truncate(String text) {
+        return text.length() > HEAD_CHARS ? text.substring(0, HEAD_CHARS) : text;
+    }
+
+    /**
+     * Opens a reader on clipboard content of a MIME type, through a stream
+     * flavor where there is one so that it is not read into a string first.
+     */
+    private static Reader openReader(Clipboard clipboard, Transferable contents, String mimeType,
+                                     DataFlavor fallback) throws IOException, UnsupportedFlavorException {
+        if (contents != null) {
+            List<DataFlavor> streams = new ArrayList<>();
+            for (DataFlavor flavor : contents.getTransferDataFlavors()) {
+                if (flavor.isMimeTypeEqual(mimeType)
+                        && (flavor.isRepresentationClassInputStream() || flavor.isRepresentationClassReader())) {
+                    streams.add(flavor);
+                }
+            }
+            DataFlavor best = DataFlavor.selectBestTextFlavor(streams.toArray(new DataFlavor[0]));
+            if (best != null) {
+                return best.getReaderForText(contents);
+            }
+        }
+        return new StringReader((String) clipboard.getData(fallback));
+    }
+
+    /**
+     * Reads plain text through a reader, switching to a spill file once it
+     * grows past {@code largeChars}.
+     */
+    private static String readText(Clipboard clipboard, int largeChars)
+            throws IOException, UnsupportedFlavorException {
+        Transferable contents = clipboard.getContents(null);
+        DataFlavor best = contents != null ? DataFlavor.selectBestTextFlavor(contents.getTransferDataFlavors()) : null;
+        if (best == null) {
+            return (String) clipboard.getData(DataFlavor.stringFlavor);
+        }
+
+        try (Reader reader = best.getReaderForText(contents)) {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                text.append(buffer, 0, n);
+                if (text.length() > largeChars) {
+                    String head = text.substring(0, HEAD_CHARS);
+                    long[] length = { text.length() };
+                    String name = spill("txt", out -> {
+                        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                        writer.append(text);
+                        text.setLength(0);
+                        int read;
+                        while ((read = reader.read(buffer)) > 0) {
+                            writer.write(buffer, 0, read);
+                            length[0] += read;
+                        }
+                        writer.flush();
+                    });
+                    return descriptor(Kind.LARGE_TEXT, name + ":" + length[0], head);
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Reads the full text of a large clip in chunks, e.g. to show it piece
+     * by piece. Stops early once {@code chunk} returns false.
+     */
+    public static void readChunks(Path file, Predicate<String> chunk) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[CHUNK_CHARS];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                if (!chunk.test(new String(buffer, 0, n))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns what to put on the clipboard when a clip is copied again. Falls
+     * back to the summary text if the payload file is gone.
+     */
+    public static Transferable transferable(String text) {
+        Kind kind = kind(text);
+        if (kind == null) {
+            return new StringSelection(text);
+        }
+
+        String summary = summary(text);
+        Path file = file(text);
+        try {
+            switch (kind) {
+                case FILES:
+                    List<File> files = new ArrayList<>();
+                    for (String path : summary.split("\n")) {
+                        if (!path.isEmpty()) files.add(new File(path));
+                    }
+                    return new Selection(DataFlavor.javaFileListFlavor, files, summary);
+                case IMAGE:
+                    if (file != null && Files.exists(file)) {
+                        return new Selection(DataFlavor.imageFlavor, ImageIO.read(file.toFile()), summary);
+                    }
+                    break;
+                case LARGE_TEXT:
+                    if (file != null && Files.exists(file)) {
+                        return new LargeTextSelection(file, summary);
+                    }
+                    break;
+                case HTML:
+                    if (file != null && Files.exists(file)) {
+                        String html = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                        // A summary cut to its head is no substitute for the text
+                        String plain = length(text) > summary.length() ? stripTags(html) : summary;
+                        return new Selection(HTML_FLAVOR, html, plain);
+                    }
+                    break;
+            }
+        } catch (IOException e) {
+            Log.error("Error reading clip content: " + e.getMessage());
+        }
+        return new StringSelection(summary);
+    }
+
+    /**
+     * Deletes payload files that were last captured before the cutoff.
+     */
+    public static void deleteOlderThan(long cutoffMillis) {
+        if (!Files.isDirectory(DIRECTORY)) return;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(DIRECTORY)) {
+            for (Path file : stream) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoffMillis) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error cleaning up clip content: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the bytes of stored clip content by the day it was written.
+     */
+    public static NavigableMap<LocalDate, Long> bytesByDay() {
+        NavigableMap<LocalDate, Long> bytes = new TreeMap<>();
+        if (!Files.isDirectory(DIRECTORY)) return bytes;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(DIRECTORY)) {
+            for (Path file : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                LocalDate date = attributes.lastModifiedTime().toInstant()
+                    .atZone(ZoneId.systemDefault()).toLocalDate();
+                bytes.merge(date, attributes.size(), Long::sum);
+            }
+        } catch (IOException e) {
+            Log.error("Error measuring clip content: " + e.getMessage());
+        }
+        return bytes;
+    }
+
+    private static String descriptor(Kind kind, String header, String summary) {
+        return MARKER + kind.name() + ":" + header + "\n" + summary;
+    }
+
+    private interface PayloadWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Streams a payload to a temporary file while hashing it, then moves it
+     * to its content name, or drops it if that file already exists.
+     *
+     * @return the file name
+     */
+    private static String spill(String extension, PayloadWriter payload) throws IOException {
+        Files.createDirectories(DIRECTORY);
+        Path tmp = Files.createTempFile(DIRECTORY, "capture", ".tmp");
+        HashingOutputStream out = null;
+        try {
+            out = new HashingOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+            payload.write(out);
+            out.close();
+
+            String name = Long.toHexString(out.hash) + "." + extension;
+            Path file = DIRECTORY.resolve(name);
+            if (Files.exists(file)) {
+                Files.delete(tmp);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } else {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return name;
+        } catch (IOException | RuntimeException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static BufferedImage toBufferedImage(Image image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        BufferedImage buffered = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        java.awt.Graphics2D g = buffered.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return buffered;
+    }
+
+    private static String stripTags(String html) {
+        return html.replaceAll("(?s)<(script|style).*?</\\1>", "")
+            .replaceAll("<[^>]*>", "")
+            .replace("&nbsp;", " ")
+            .replace("&lt;", "<")
+            .replace("&gt;", ">")
+            .replace("&amp;", "&")
+            .trim();
+    }
+
+    // FNV-1a 64 over the bytes written, as in BlobStore
+    private static class HashingOutputStream extends FilterOutputStream {
+        long hash = 0xcbf29ce484222325L;
+
+        HashingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                hash ^= b[i] & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Offers the text of a large clip, read from its file only when pasted.
+     */
+    private static class LargeTextSelection implements Transferable {
+        private final Path file;
+        private final String head;
+
+        LargeTextSelection(Path file, String head) {
+            this.file = file;
+            this.head = head;
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[] { DataFlavor.stringFlavor };
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor candidate) {
+            return DataFlavor.stringFlavor.equals(candidate);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor candidate) throws UnsupportedFlavorException, IOException {
+            if (!DataFlavor.stringFlavor.equals(candidate)) {
+                throw new UnsupportedFlavorException(candidate);
+            }
+            return Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : head;
+        }
+    }
+
+    /**
+     * Offers one rich flavor together with its summary as plain text.
+     */
+    private static class Selection implements Transferable {
+        private final DataFlavor flavor;
+        private final Object data;
+        private final String text;
+
+        Selection(DataFlavor flavor, Object data, String text) {
+            this.flavor = flavor;
+            this.data = data;
+            this.text = text;
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[] { flavor, DataFlavor.stringFlavor };
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor candidate) {
+            return flavor.equals(candidate) || DataFlavor.stringFlavor.equals(candidate);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor candidate) throws UnsupportedFlavorException {
+            if (flavor.equals(candidate)) return data;
+            if (DataFlavor.stringFlavor.equals(candidate)) return text;
+            throw new UnsupportedFlavorException(candidate);
+        }
+    }
+}
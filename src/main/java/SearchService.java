@@ -0,0 +1,489 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs history searches off the EDT.
+ *
+ * Queries are debounced while the user is typing, and submitting a new query
+ * cancels the one still running. When a query extends the previous completed
+ * one and no clips were added since, only the previous results are filtered.
+ * Matches are handed to the UI in pages as they are found, so the first ones
+ * show up without waiting for the whole history to be scanned.
+ *
+ * In fuzzy mode the whole history is ranked with {@link FuzzyMatcher} and
+ * only the best {@value #FUZZY_RESULTS} clips are kept and shown, best
+ * first. Clips whose cached character mask rules the query out are skipped
+ * without reading their text.
+ *
+ * In regex mode the pattern is compiled once and the days are scanned in
+ * parallel, then published newest first. A literal that every match has to
+ * contain is taken from the pattern where possible and prunes the scan
+ * through the trigram index and a substring check before the regex runs.
+ * The time budget and cancellation are checked before every clip, and
+ * matching reads the text through a view that checks them as well, so a
+ * slow or catastrophic pattern is stopped after
+ * {@value #REGEX_BUDGET_MILLIS} ms with whatever was found until then.
+ */
+public class SearchService {
+    private static final long DEBOUNCE_MILLIS = 120;
+    private static final int PAGE_SIZE = 60;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    static final int FUZZY_RESULTS = 200;
+    static final long REGEX_BUDGET_MILLIS = 2000;
+
+    public enum Mode {
+        /** Clips containing the query, newest first. */
+        TEXT("Text"),
+        /** Clips fuzzily matching the query, best first. */
+        FUZZY("Fuzzy"),
+        /** Clips matching the query as a regular expression, newest first. */
+        REGEX("Regex");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the EDT with the next page of matches of the current
+         * query. The first page replaces whatever was shown before and may
+         * be empty.
+         */
+        void resultsAvailable(List<MainWindow.ClipEntry> page, boolean first);
+    }
+
+    private final DayCatalog catalog;
+    private final TrigramIndex index;
+    private final AtomicLong generation = new AtomicLong();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "clip-search");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService partitions = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+            Thread t = new Thread(r, "clip-search-partition");
+            t.setDaemon(true);
+            return t;
+        });
+    private ScheduledFuture<?> pending;
+
+    // Last completed search, only touched by the search thread
+    private String lastQuery;
+    private List<MainWindow.ClipEntry> lastResults;
+    private long lastVersion;
+
+    public SearchService(DayCatalog catalog, TrigramIndex index) {
+        this.catalog = catalog;
+        this.index = index;
+    }
+
+    /**
+     * Schedules a search, superseding any search that is pending or running.
+     *
+     * @param query the non-empty query, case-folded with {@link HistoryManager#fold}
+     *              unless it is a regex
+     */
+    public synchronized void submit(String query, Mode mode, Listener listener) {
+        long searchGeneration = generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(() -> run(searchGeneration, query, mode, listener, SwingUtilities::invokeLater),
+            DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a fresh search without debouncing and waits for every match,
+     * e.g. for benchmarks. It supersedes any pending search.
+     */
+    public List<MainWindow.ClipEntry> searchNow(String query, Mode mode)
+            throws InterruptedException, ExecutionException {
+        long searchGeneration;
+        synchronized (this) {
+            searchGeneration = generation.incrementAndGet();
+        }
+        List<MainWindow.ClipEntry> matches = new ArrayList<>();
+        executor.submit(() -> {
+            lastResults = null;
+            run(searchGeneration, query, mode, (page, first) -> matches.addAll(page), Runnable::run);
+        }).get();
+        return matches;
+    }
+
+    /**
+     * Cancels the pending or running search; its remaining pages are dropped.
+     */
+    public synchronized void cancel() {
+        generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void run(long searchGeneration, String query, Mode mode, Listener listener, Executor delivery) {
+        long version = catalog.version();
+        Pager pager = new Pager(searchGeneration, listener, delivery);
+
+        if (mode != Mode.TEXT) {
+            // These results cannot be refined by the substring search
+            lastResults = null;
+            boolean completed = mode == Mode.FUZZY
+                ? rank(searchGeneration, query, pager)
+                : matchRegex(searchGeneration, query, pager);
+            if (completed) {
+                pager.finish();
+            }
+            return;
+        }
+        List<MainWindow.ClipEntry> results = new ArrayList<>();
+
+        boolean completed;
+        if (lastResults != null && version == lastVersion && query.contains(lastQuery)) {
+            completed = refine(searchGeneration, query, results, pager);
+        } else {
+            completed = scan(searchGeneration, query, results, pager);
+        }
+
+        if (completed) {
+            pager.finish();
+            lastQuery = query;
+            lastResults = results;
+            lastVersion = version;
+        }
+    }
+
+    private boolean refine(long searchGeneration, String query,
+                           List<MainWindow.ClipEntry> results, Pager pager) {
+        for (MainWindow.ClipEntry entry : lastResults) {
+            if (generation.get() != searchGeneration) return false;
+
+            if (HistoryManager.indexOfFolded(RichContent.summary(entry.getText()), query, 0) >= 0) {
+                results.add(entry);
+                pager.add(entry);
+            }
+        }
+        return true;
+    }
+
+    private boolean scan(long searchGeneration, String query,
+                         List<MainWindow.ClipEntry> results, Pager pager) {
+        // Only verify the clips the trigram index cannot rule out
+        for (LocalDate date : catalog.dates()) {
+            if (generation.get() != searchGeneration) return false;
+
+            int[] candidates = index.candidates(date, query);
+            if (candidates != null && candidates.length == 0) continue;
+
+            List<MainWindow.ClipEntry> clips = catalog.snapshot(date);
+            int count = candidates != null ? candidates.length : clips.size();
+            for (int i = 0; i < count; i++) {
+                if (generation.get() != searchGeneration) return false;
+
+                // Newest first, as the day is shown
+                MainWindow.ClipEntry entry = candidate(clips, candidates, i);
+                if (entry == null) continue;
+                if (HistoryManager.indexOfFolded(RichContent.summary(entry.getText()), query, 0) >= 0) {
+                    results.add(entry);
+                    pager.add(entry);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the i-th clip to check, newest first, of all clips or of the
+     * candidates, or null for a candidate the snapshot does not hold.
+     */
+    private static MainWindow.ClipEntry candidate(List<MainWindow.ClipEntry> clips, int[] candidates, int i) {
+        if (candidates == null) {
+            return clips.get(i);
+        }
+        int ordinal = candidates[candidates.length - 1 - i];
+        return ordinal < clips.size() ? clips.get(clips.size() - 1 - ordinal) : null;
+    }
+
+    private boolean rank(long searchGeneration, String query, Pager pager) {
+        // Folded as the texts are; String.toLowerCase can change the length
+        query = HistoryManager.fold(query);
+        long queryMask = FuzzyMatcher.mask(query);
+        LocalDate today = LocalDate.now();
+        FuzzyMatcher.TopK<MainWindow.ClipEntry> best = new FuzzyMatcher.TopK<>(FUZZY_RESULTS);
+        for (LocalDate date : catalog.dates()) {
+            if (generation.get() != searchGeneration) return false;
+
+            int recency = FuzzyMatcher.recencyBonus(date, today);
+            for (MainWindow.ClipEntry entry : catalog.snapshot(date)) {
+                if (generation.get() != searchGeneration) return false;
+                if (!FuzzyMatcher.mayMatch(entry.charMask(), queryMask)) continue;
+
+                String text = RichContent.summary(entry.getText());
+                int score = FuzzyMatcher.score(HistoryManager.fold(text), text, query, null);
+                if (score != FuzzyMatcher.NO_MATCH) {
+                    best.offer(entry, score + recency, entry.timestamp);
+                }
+            }
+        }
+
+        for (MainWindow.ClipEntry entry : best.sorted()) {
+            pager.add(entry);
+        }
+        return true;
+    }
+
+    private boolean matchRegex(long searchGeneration, String query, Pager pager) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        } catch (PatternSyntaxException e) {
+            return true;
+        }
+        String literal = requiredLiteral(query);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REGEX_BUDGET_MILLIS);
+
+        List<Future<List<MainWindow.ClipEntry>>> parts = new ArrayList<>();
+        for (LocalDate date : catalog.dates()) {
+            parts.add(partitions.submit(() -> matchDay(date, pattern, literal, searchGeneration, deadline)));
+        }
+
+        try {
+            for (Future<List<MainWindow.ClipEntry>> part : parts) {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                for (MainWindow.ClipEntry entry : part.get(remaining, TimeUnit.NANOSECONDS)) {
+                    pager.add(entry);
+                }
+            }
+            return true;
+        } catch (TimeoutException e) {
+            Log.warn("Regex search stopped after " + REGEX_BUDGET_MILLIS + " ms: " + query);
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Stopped && ((Stopped) e.getCause()).timedOut) {
+                Log.warn("Regex search stopped after " + REGEX_BUDGET_MILLIS + " ms: " + query);
+                return true;
+            }
+            if (!(e.getCause() instanceof Stopped)) {
+                Log.error("Error in regex search: " + e.getCause());
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // Not interrupted: that would close channels the clips are read from
+            for (Future<List<MainWindow.ClipEntry>> part : parts) {
+                part.cancel(false);
+            }
+        }
+    }
+
+    private List<MainWindow.ClipEntry> matchDay(LocalDate date, Pattern pattern, String literal,
+                                                long searchGeneration, long deadline) {
+        List<MainWindow.ClipEntry> matches = new ArrayList<>();
+        int[] candidates = literal != null ? index.candidates(date, literal) : null;
+        if (candidates != null && candidates.length == 0) {
+            return matches;
+        }
+
+        List<MainWindow.ClipEntry> clips = catalog.snapshot(date);
+        int count = candidates != null ? candidates.length : clips.size();
+        for (int i = 0; i < count; i++) {
+            checkBudget(searchGeneration, deadline);
+
+            MainWindow.ClipEntry entry = candidate(clips, candidates, i);
+            if (entry == null) continue;
+            String text = RichContent.summary(entry.getText());
+            if (literal != null && HistoryManager.indexOfFolded(text, literal, 0) < 0) continue;
+
+            if (pattern.matcher(new BudgetedText(text, this, searchGeneration, deadline)).find()) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Throws {@link Stopped} once the search was superseded or its budget is
+     * spent.
+     */
+    private void checkBudget(long searchGeneration, long deadline) {
+        if (generation.get() != searchGeneration) throw new Stopped(false);
+        if (System.nanoTime() - deadline > 0) throw new Stopped(true);
+    }
+
+    /**
+     * Returns the longest run of plain characters every match of the regex
+     * must contain, case-folded, or null if none can be told for sure. Only
+     * literals outside of groups count, and none if there is an alternation.
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.indexOf('|') >= 0) return null;
+
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            if (c == '\\' && i + 1 < regex.length()) {
+                c = regex.charAt(++i);
+                // Escapes like \x41 or \p{L} take arguments that are not literal
+                if ("xuc0pPNkQ".indexOf(c) >= 0) return null;
+                // An escaped symbol is itself, a letter or digit is a class or backreference
+                literal = !Character.isLetterOrDigit(c);
+            } else if (c == '[') {
+                // Skip the class, including an escaped or leading ']'
+                int j = i + 1;
+                if (j < regex.length() && regex.charAt(j) == '^') j++;
+                if (j < regex.length() && regex.charAt(j) == ']') j++;
+                while (j < regex.length() && regex.charAt(j) != ']') {
+                    if (regex.charAt(j) == '\\') j++;
+                    j++;
+                }
+                i = j;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '?' || c == '*' || c == '{') {
+                // The previous character is optional unless repeated at least once
+                boolean optional = c != '{' || (i + 1 < regex.length() && regex.charAt(i + 1) == '0');
+                if (optional && run.length() > 0) run.setLength(run.length() - 1);
+                if (c == '{') {
+                    int close = regex.indexOf('}', i);
+                    i = close < 0 ? regex.length() : close;
+                }
+            } else {
+                literal = ".^$+".indexOf(c) < 0;
+            }
+
+            if (literal && depth == 0) {
+                run.append(c);
+            } else {
+                if (run.length() > best.length()) best = run.toString();
+                run.setLength(0);
+            }
+        }
+        if (run.length() > best.length()) best = run.toString();
+        return best.isEmpty() ? null : HistoryManager.fold(best);
+    }
+
+    /**
+     * Thrown from inside regex matching to stop it.
+     */
+    private static class Stopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final boolean timedOut;
+
+        Stopped(boolean timedOut) {
+            super(null, null, false, false);
+            this.timedOut = timedOut;
+        }
+    }
+
+    /**
+     * Text handed to the regex engine that gives up once the budget is
+     * spent or the search was superseded. Checked every 1024 reads, so it
+     * only matters for a single text the pattern backtracks over; the scan
+     * checks between clips.
+     */
+    private static class BudgetedText implements CharSequence {
+        private final String text;
+        private final SearchService service;
+        private final long searchGeneration;
+        private final long deadline;
+        private int reads = 0;
+
+        BudgetedText(String text, SearchService service, long searchGeneration, long deadline) {
+            this.text = text;
+            this.service = service;
+            this.searchGeneration = searchGeneration;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++reads & 1023) == 0) {
+                service.checkBudget(searchGeneration, deadline);
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Collects matches and publishes them, normally on the EDT, once a page
+     * is full or a frame's worth of time has passed.
+     */
+    private class Pager {
+        private final long searchGeneration;
+        private final Listener listener;
+        private final Executor delivery;
+        private List<MainWindow.ClipEntry> page = new ArrayList<>();
+        private boolean first = true;
+        private long lastPublish = System.nanoTime();
+
+        Pager(long searchGeneration, Listener listener, Executor delivery) {
+            this.searchGeneration = searchGeneration;
+            this.listener = listener;
+            this.delivery = delivery;
+        }
+
+        void add(MainWindow.ClipEntry entry) {
+            page.add(entry);
+            if (page.size() >= PAGE_SIZE || System.nanoTime() - lastPublish >= FRAME_NANOS) {
+                publish();
+            }
+        }
+
+        void finish() {
+            if (!page.isEmpty() || first) {
+                publish();
+            }
+        }
+
+        private void publish() {
+            List<MainWindow.ClipEntry> published = page;
+            boolean publishedFirst = first;
+            page = new ArrayList<>();
+            first = false;
+            lastPublish = System.nanoTime();
+
+            delivery.execute(() -> {
+                if (generation.get() == searchGeneration) {
+                    listener.resultsAvailable(published, publishedFirst);
+                }
+            });
+        }
+    }
+}
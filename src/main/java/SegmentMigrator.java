@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One-time conversion of day files written by older versions.
+ *
+ * The old line-based {@code yyyy-MM-dd.txt} files become {@link DaySegment}
+ * files. That format stored one clip per line, so multi-line clips that were
+ * already split cannot be joined back; every non-blank line becomes one
+ * entry, as it was shown before. Capture times were not recorded and are set
+ * to the start of the day.
+ *
+ * Segments of an older format version, which still hold their texts inline,
+ * are rewritten so the texts move into the {@link BlobStore}.
+ */
+public class SegmentMigrator {
+    public static void migrate(Path directory, ClipJournal journal) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String filename = file.getFileName().toString();
+                LocalDate date = ClipJournal.dateOf(file);
+                if (date == null) continue;
+
+                try {
+                    if (filename.endsWith(ClipJournal.LEGACY_DAY_SUFFIX)) {
+                        migrateDay(file, date, journal);
+                    } else if (filename.endsWith(ClipJournal.DAY_SUFFIX)) {
+                        journal.upgradeSegment(date);
+                    }
+                } catch (IOException e) {
+                    Log.error("Error migrating file: " + filename + ", " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error scanning data directory for migration: " + e.getMessage());
+        }
+    }
+
+    private static void migrateDay(Path file, LocalDate date, ClipJournal journal) throws IOException {
+        Path segmentFile = file.resolveSibling(file.getFileName().toString()
+            .replace(ClipJournal.LEGACY_DAY_SUFFIX, ClipJournal.DAY_SUFFIX));
+
+        // Already written by a run that stopped before deleting the old file
+        if (Files.exists(segmentFile)) {
+            Files.delete(file);
+            return;
+        }
+
+        long timestamp = date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        List<ClipJournal.Record> records = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                records.add(new ClipJournal.Record(timestamp, line));
+            }
+        }
+
+        journal.writeSegment(date, records);
+        Files.delete(file);
+        Log.info("Migrated " + file.getFileName() + " (" + records.size() + " clips)");
+    }
+}
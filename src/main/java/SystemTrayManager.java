@@ -14,7 +14,7 @@ public class SystemTrayManager {
 
     public void init() {
         if (!SystemTray.isSupported()) {
-            System.err.println("System tray not supported!");
+            Log.warn("System tray not supported!");
             return;
         }
 
@@ -30,7 +30,7 @@ public class SystemTrayManager {
             try {
                 GlobalScreen.unregisterNativeHook();
             } catch (Exception ex) {
-                ex.printStackTrace();
+                Log.error("Error unregistering native hook", ex);
             }
 
             System.exit(0);
@@ -44,7 +44,7 @@ public class SystemTrayManager {
         try {
             tray.add(trayIcon);
         } catch (AWTException e) {
-            System.err.println("TrayIcon could not be added.");
+            Log.warn("TrayIcon could not be added.");
         }
 
         KeyboardFocusManager.getCurrentKeyboardFocusManager()
@@ -0,0 +1,85 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Off-heap storage for clip texts that are held in memory.
+ *
+ * Texts are encoded as UTF-8 into large direct buffers, and each clip keeps
+ * only a read-only slice of its bytes, which is decoded whenever the text is
+ * asked for. A chunk is released by the garbage collector once no clip
+ * refers to it any more. Texts larger than a chunk get a buffer of their own.
+ *
+ * This trades decoding on every access for a heap that holds little more
+ * than the clip handles, see {@link #logMemoryUsage(String)}.
+ */
+public class TextArena {
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private ByteBuffer chunk;
+    private long allocatedBytes = 0;
+    private long storedBytes = 0;
+
+    /**
+     * Copies a text into the arena.
+     *
+     * @return a read-only view of exactly the UTF-8 bytes of the text
+     */
+    public ByteBuffer store(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            ByteBuffer target;
+            if (bytes.length > CHUNK_BYTES / 4) {
+                target = ByteBuffer.allocateDirect(bytes.length);
+                allocatedBytes += bytes.length;
+            } else {
+                if (chunk == null || chunk.remaining() < bytes.length) {
+                    chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+                    allocatedBytes += CHUNK_BYTES;
+                }
+                target = chunk;
+            }
+
+            ByteBuffer slice = target.slice();
+            slice.limit(bytes.length);
+            slice.put(bytes);
+            target.position(target.position() + bytes.length);
+            storedBytes += bytes.length;
+
+            slice.flip();
+            return slice.asReadOnlyBuffer();
+        }
+    }
+
+    public static String decode(ByteBuffer utf8) {
+        byte[] bytes = new byte[utf8.limit()];
+        utf8.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long storedBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Prints the heap in use and the direct memory held by buffers, so the
+     * effect of the arena on the heap size needed can be compared.
+     */
+    public static void logMemoryUsage(String when) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                direct = pool.getMemoryUsed();
+            }
+        }
+        Log.info("Memory " + when + ": heap used " + heap.getUsed() / 1024 + " KB of "
+            + heap.getCommitted() / 1024 + " KB committed, direct " + direct / 1024 + " KB");
+    }
+}
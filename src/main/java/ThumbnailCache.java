@@ -0,0 +1,125 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+
+/**
+ * Card thumbnails of image clips, scaled on a small background pool.
+ *
+ * Images are decoded with source subsampling so a large screenshot never
+ * gets fully decoded just for its card. Thumbnails are kept in an LRU
+ * cache bounded by their pixel bytes. The renderer asks with
+ * {@link #get(Path, Runnable)} and gets null until the thumbnail is ready,
+ * at which point the callback runs on the EDT.
+ */
+public class ThumbnailCache {
+    public static final int WIDTH = 200;
+    public static final int HEIGHT = 100;
+
+    private static final long MAX_CACHED_BYTES = 16L * 1024 * 1024;
+
+    private final ExecutorService pool = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "clip-thumbnails");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+    private final LinkedHashMap<Path, BufferedImage> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Path> loading = new HashSet<>();
+    private final Set<Path> failed = new HashSet<>();
+    private long cachedBytes = 0;
+
+    public ThumbnailCache() {
+        ((ThreadPoolExecutor) pool).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the thumbnail of an image file, or null while it is being
+     * scaled; {@code ready} then runs on the EDT once it is available.
+     */
+    public synchronized BufferedImage get(Path file, Runnable ready) {
+        BufferedImage thumbnail = thumbnails.get(file);
+        if (thumbnail != null || failed.contains(file) || !loading.add(file)) {
+            return thumbnail;
+        }
+
+        pool.execute(() -> {
+            BufferedImage scaled = load(file);
+            synchronized (this) {
+                loading.remove(file);
+                if (scaled != null) {
+                    put(file, scaled);
+                } else {
+                    failed.add(file);
+                }
+            }
+            if (scaled != null) {
+                SwingUtilities.invokeLater(ready);
+            }
+        });
+        return null;
+    }
+
+    private void put(Path file, BufferedImage thumbnail) {
+        thumbnails.put(file, thumbnail);
+        cachedBytes += bytes(thumbnail);
+
+        Iterator<BufferedImage> eldest = thumbnails.values().iterator();
+        while (cachedBytes > MAX_CACHED_BYTES && eldest.hasNext()) {
+            cachedBytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static BufferedImage load(Path file) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                // Decode at most about twice the thumbnail size
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(width / (2 * WIDTH), height / (2 * HEIGHT)));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                double scale = Math.min(1.0, Math.min((double) WIDTH / image.getWidth(),
+                    (double) HEIGHT / image.getHeight()));
+                int w = Math.max(1, (int) Math.round(image.getWidth() * scale));
+                int h = Math.max(1, (int) Math.round(image.getHeight() * scale));
+                BufferedImage thumbnail = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = thumbnail.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, w, h, null);
+                g.dispose();
+                return thumbnail;
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            Log.error("Error creating thumbnail for " + file.getFileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long bytes(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Persistent trigram inverted index over the clip history, one index per day.
+ *
+ * Every clip is identified inside its day by its ordinal, the position
+ * counted from the oldest clip of the day, which never changes as newer
+ * clips are put in front. Each case-folded trigram of a clip maps to a
+ * posting list of ordinals, stored as delta-encoded varints.
+ *
+ * A substring query of three or more characters is answered by intersecting
+ * the posting lists of its trigrams; the resulting candidates still have to
+ * be verified against the text; a rich clip is indexed by its summary,
+ * as every search mode matches it. Day indexes are saved as
+ * {@code yyyy-MM-dd.tri} and extended when the day has grown since.
+ */
+public class TrigramIndex {
+    static final String SUFFIX = ".tri";
+
+    private static final int MAGIC = 0x43545249;
+    // 2: rich clips are indexed by their summary
+    // 3: folded char by char, as queries are
+    private static final int VERSION = 3;
+
+    private final Path directory;
+    private final DayCatalog catalog;
+    private final Map<LocalDate, DayIndex> days = new HashMap<>();
+
+    public TrigramIndex(Path directory, DayCatalog catalog) {
+        this.directory = directory;
+        this.catalog = catalog;
+    }
+
+    /**
+     * Indexes a newly captured clip. Does nothing for a day that has not
+     * been indexed yet, since {@link #candidates} catches up on it.
+     */
+    public synchronized void add(LocalDate date, int ordinal, String text) {
+        DayIndex day = days.get(date);
+        if (day != null && day.size == ordinal) {
+            day.add(ordinal, text);
+        }
+    }
+
+    /**
+     * Returns the ordinals of the clips of a day that may contain the query,
+     * in ascending order, or null if the query is too short to use the index.
+     *
+     * @param query the query, case-folded with {@link HistoryManager#fold}
+     */
+    public int[] candidates(LocalDate date, String query) {
+        if (query.length() < 3) {
+            return null;
+        }
+
+        DayIndex day = ensureIndexed(date);
+        synchronized (this) {
+            return day.candidates(query);
+        }
+    }
+
+    /**
+     * Loads or builds the index of a day ahead of the first search.
+     */
+    public void warm(LocalDate date) {
+        ensureIndexed(date);
+    }
+
+    /**
+     * Drops the index of a day and its file.
+     */
+    public synchronized void remove(LocalDate date) {
+        days.remove(date);
+        try {
+            Files.deleteIfExists(path(date));
+        } catch (IOException e) {
+            Log.error("Error deleting index for " + date + ", " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves every day index that changed since it was last written.
+     */
+    public synchronized void flush() {
+        for (Map.Entry<LocalDate, DayIndex> entry : days.entrySet()) {
+            if (entry.getValue().dirty) {
+                save(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private DayIndex ensureIndexed(LocalDate date) {
+        // Loading the day's clips may touch the disk, so do it outside the
+        // index lock; clips only ever get added in front
+        int count = catalog.count(date);
+        synchronized (this) {
+            DayIndex day = days.get(date);
+            if (day == null) {
+                day = load(date);
+                days.put(date, day);
+            }
+            if (day.size > count) {
+                // Saved with clips the day no longer has, e.g. after a torn
+                // journal tail was cut off
+                day = new DayIndex();
+                days.put(date, day);
+            }
+            if (day.size == count) {
+                return day;
+            }
+        }
+
+        List<MainWindow.ClipEntry> clips = catalog.snapshot(date);
+        synchronized (this) {
+            DayIndex day = days.get(date);
+            if (day == null) {
+                day = new DayIndex();
+                days.put(date, day);
+            }
+            int size = clips.size();
+            for (int ordinal = day.size; ordinal < size; ordinal++) {
+                day.add(ordinal, clips.get(size - 1 - ordinal).getText());
+            }
+            if (!date.equals(LocalDate.now())) {
+                save(date, day);
+            }
+            return day;
+        }
+    }
+
+    private DayIndex load(LocalDate date) {
+        DayIndex day = new DayIndex();
+        Path file = path(date);
+        if (!Files.exists(file)) {
+            return day;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return day;
+            }
+            int size = in.readInt();
+            int trigrams = in.readInt();
+            for (int i = 0; i < trigrams; i++) {
+                long trigram = in.readLong();
+                PostingList list = new PostingList();
+                list.count = in.readInt();
+                list.last = in.readInt();
+                list.length = in.readInt();
+                list.data = new byte[Math.max(list.length, 4)];
+                in.readFully(list.data, 0, list.length);
+                day.postings.put(trigram, list);
+            }
+            day.size = size;
+        } catch (IOException e) {
+            Log.warn("Error reading index for " + date + ", rebuilding: " + e.getMessage());
+            return new DayIndex();
+        }
+        return day;
+    }
+
+    private void save(LocalDate date, DayIndex day) {
+        Path file = path(date);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(day.size);
+            out.writeInt(day.postings.size());
+            for (Map.Entry<Long, PostingList> entry : day.postings.entrySet()) {
+                PostingList list = entry.getValue();
+                out.writeLong(entry.getKey());
+                out.writeInt(list.count);
+                out.writeInt(list.last);
+                out.writeInt(list.length);
+                out.write(list.data, 0, list.length);
+            }
+        } catch (IOException e) {
+            Log.error("Error saving index for " + date + ", " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            day.dirty = false;
+        } catch (IOException e) {
+            Log.error("Error saving index for " + date + ", " + e.getMessage());
+        }
+    }
+
+    private Path path(LocalDate date) {
+        return directory.resolve(date.format(DateTimeFormatter.ISO_DATE) + SUFFIX);
+    }
+
+    static long trigram(String text, int i) {
+        return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+    }
+
+    private static class DayIndex {
+        final Map<Long, PostingList> postings = new HashMap<>();
+        int size = 0;
+        boolean dirty = false;
+
+        void add(int ordinal, String text) {
+            // What is shown and searched, not a rich clip's descriptor
+            String folded = HistoryManager.fold(RichContent.summary(text));
+            for (int i = 0; i + 3 <= folded.length(); i++) {
+                PostingList list = postings.get(trigram(folded, i));
+                if (list == null) {
+                    list = new PostingList();
+                    postings.put(trigram(folded, i), list);
+                }
+                // Repeated trigrams of one clip are only recorded once
+                list.add(ordinal);
+            }
+            size = ordinal + 1;
+            dirty = true;
+        }
+
+        int[] candidates(String query) {
+            Set<Long> trigrams = new HashSet<>();
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                trigrams.add(trigram(query, i));
+            }
+
+            List<PostingList> lists = new ArrayList<>(trigrams.size());
+            for (Long trigram : trigrams) {
+                PostingList list = postings.get(trigram);
+                if (list == null) {
+                    return new int[0];
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list.count));
+
+            int[] result = lists.get(0).decode();
+            int length = result.length;
+            for (int i = 1; i < lists.size() && length > 0; i++) {
+                length = lists.get(i).retainAll(result, length);
+            }
+            return Arrays.copyOf(result, length);
+        }
+    }
+
+    /**
+     * Ascending list of ordinals, delta-encoded as unsigned varints.
+     */
+    private static class PostingList {
+        byte[] data = new byte[4];
+        int length = 0;
+        int count = 0;
+        int last = -1;
+
+        void add(int ordinal) {
+            if (ordinal == last) return;
+
+            int delta = count == 0 ? ordinal : ordinal - last;
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2 + 5);
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = ordinal;
+            count++;
+        }
+
+        int[] decode() {
+            int[] ordinals = new int[count];
+            int position = 0;
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                value += delta;
+                ordinals[i] = value;
+            }
+            return ordinals;
+        }
+
+        /**
+         * Keeps in {@code sorted[0..length)} only the ordinals present in
+         * this list and returns the new length.
+         */
+        int retainAll(int[] sorted, int length) {
+            int kept = 0;
+            int j = 0;
+            int position = 0;
+            int value = 0;
+            for (int i = 0; i < count && j < length; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                value += delta;
+
+                while (j < length && sorted[j] < value) {
+                    j++;
+                }
+                if (j < length && sorted[j] == value) {
+                    sorted[kept++] = value;
+                    j++;
+                }
+            }
+            return kept;
+        }
+    }
+}